@@ -0,0 +1,72 @@
+package org.jchien.twitchbrowser.twitch;
+
+import com.google.common.io.ByteStreams;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.jchien.twitchbrowser.cache.CacheCompression;
+import org.jchien.twitchbrowser.cache.CachePayloadCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing and reading a cache entry for a full page of streams with each {@link CacheCompression}.
+ *
+ * ./gradlew jmh -PjmhArgs="CachePayload"
+ *
+ * @author jchien
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachePayloadBenchmark {
+    @Param({"NONE", "DEFLATE"})
+    private CacheCompression compression;
+
+    private CachePayloadCodec codec;
+
+    private StreamsResponse response;
+
+    private byte[] stored;
+
+    @Setup
+    public void setup() throws IOException {
+        final byte[] json;
+        try (InputStream is = CachePayloadBenchmark.class.getResourceAsStream("/kraken/streams.json")) {
+            json = ByteStreams.toByteArray(is);
+        }
+        response = BasicTwitchApiService.parseContent(new ByteArrayInputStream(json),
+                new BasicTwitchApiService.StreamsHandler("Dota 2"))
+                .toBuilder()
+                .setFromCache(true)
+                .build();
+
+        codec = new CachePayloadCodec(compression);
+        stored = codec.encode(response.toByteArray());
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(response.toByteArray());
+    }
+
+    @Benchmark
+    public StreamsResponse decode() throws IOException {
+        return codec.decode(stored);
+    }
+}
@@ -0,0 +1,133 @@
+package org.jchien.twitchbrowser.twitch;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import org.jchien.twitchbrowser.StreamsRequest;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.jchien.twitchbrowser.cache.CacheCompression;
+import org.jchien.twitchbrowser.cache.CachePayloadCodec;
+import org.jchien.twitchbrowser.cache.LocalStreamsCache;
+import org.jchien.twitchbrowser.cache.PopularityTracker;
+import org.jchien.twitchbrowser.loadtest.InMemoryCacheClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getStreams end to end, minus the network. Kraken is a mock http transport serving the recorded payload and redis
+ * is an {@link InMemoryCacheClient}, so what's left is the service's own overhead: cache keys, popularity tracking,
+ * the lookup, decoding the entry and the futures holding it all together.
+ *
+ * localHit is served from the in-process cache. redisHit has the in-process cache turned off so every call decodes a
+ * DEFLATE entry like a real redis hit would, just without the round trip. upstream skips the cache and goes through
+ * BasicTwitchApiService, its executor and the http client to the decoder.
+ *
+ * ./gradlew jmh -PjmhArgs="CachingService -prof gc"
+ *
+ * @author jchien
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachingServiceBenchmark {
+    private static final StreamsRequest REQUEST = StreamsRequest.newBuilder()
+            .setGameName("Dota 2")
+            .setLimit(CachingTwitchApiService.GAME_STREAM_LIMIT)
+            .build();
+
+    private BasicTwitchApiService kraken;
+
+    private CachingTwitchApiService localCaching;
+
+    private CachingTwitchApiService redisCaching;
+
+    @Setup
+    public void setup() throws IOException {
+        final byte[] streamsPayload = KrakenDecodeBenchmark.load("/kraken/streams.json");
+        kraken = new BasicTwitchApiService("benchmark", "https://api.twitch.tv", krakenTransport(streamsPayload), 4);
+
+        localCaching = cachingService(true);
+        redisCaching = cachingService(false);
+
+        // fills each cache, everything after this is a hit
+        localCaching.getStreams(REQUEST);
+        redisCaching.getStreams(REQUEST);
+    }
+
+    private CachingTwitchApiService cachingService(boolean localCacheEnabled) {
+        return new CachingTwitchApiService(kraken,
+                new InMemoryCacheClient(),
+                new CachePayloadCodec(CacheCompression.DEFLATE),
+                new LocalStreamsCache(localCacheEnabled, 16 * 1024 * 1024, TimeUnit.MINUTES.toMillis(1)),
+                new PopularityTracker(),
+                false,
+                TimeUnit.MINUTES.toMillis(10),
+                TimeUnit.HOURS.toMillis(1),
+                4,
+                TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * Answers every request with payload, each with its own stream since the body gets read to the end.
+     */
+    private static MockHttpTransport krakenTransport(byte[] payload) {
+        return new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        return new MockLowLevelHttpResponse()
+                                .setContentType(Json.MEDIA_TYPE)
+                                .setContent(payload);
+                    }
+                };
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        // both share kraken, shutting it down twice is harmless
+        localCaching.shutdown();
+        redisCaching.shutdown();
+    }
+
+    @Benchmark
+    public String cacheKey() {
+        return localCaching.getCacheKey(REQUEST);
+    }
+
+    @Benchmark
+    public StreamsResponse localHit() throws IOException {
+        return localCaching.getStreams(REQUEST);
+    }
+
+    @Benchmark
+    public StreamsResponse redisHit() throws IOException {
+        return redisCaching.getStreams(REQUEST);
+    }
+
+    @Benchmark
+    public StreamsResponse upstream() throws IOException {
+        return kraken.getStreams(REQUEST);
+    }
+}
@@ -0,0 +1,64 @@
+package org.jchien.twitchbrowser.twitch;
+
+import com.google.common.io.ByteStreams;
+import org.jchien.twitchbrowser.PopularGamesResponse;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode throughput for both kraken payloads the service fetches, a 25 stream /kraken/streams page and a 100 game
+ * /kraken/games/top list, through the same handlers BasicTwitchApiService uses.
+ *
+ * ./gradlew jmh -PjmhArgs="KrakenDecode -prof gc"
+ *
+ * @author jchien
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KrakenDecodeBenchmark {
+    private byte[] streamsPayload;
+
+    private byte[] gamesPayload;
+
+    @Setup
+    public void setup() throws IOException {
+        streamsPayload = load("/kraken/streams.json");
+        gamesPayload = load("/kraken/games_top.json");
+    }
+
+    static byte[] load(String resource) throws IOException {
+        try (InputStream is = KrakenDecodeBenchmark.class.getResourceAsStream(resource)) {
+            return ByteStreams.toByteArray(is);
+        }
+    }
+
+    @Benchmark
+    public StreamsResponse streams() throws IOException {
+        return BasicTwitchApiService.parseContent(new ByteArrayInputStream(streamsPayload),
+                new BasicTwitchApiService.StreamsHandler("Dota 2"));
+    }
+
+    @Benchmark
+    public PopularGamesResponse games() throws IOException {
+        return BasicTwitchApiService.parseContent(new ByteArrayInputStream(gamesPayload),
+                new BasicTwitchApiService.GamesHandler());
+    }
+}
@@ -0,0 +1,100 @@
+package org.jchien.twitchbrowser.twitch;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.jchien.twitchbrowser.json.ProtoJsonDeserializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a recorded /kraken/streams response the old way (buffer to a String, build a JsonElement tree,
+ * pretty print each stream and parse it again) against the single pass streaming decoder.
+ *
+ * Run with the gc profiler to see allocation per operation: ./gradlew jmh -PjmhArgs="StreamsDecode -prof gc"
+ *
+ * @author jchien
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamsDecodeBenchmark {
+    private static final Gson TREE_GSON = new GsonBuilder()
+            .setPrettyPrinting()
+            .registerTypeAdapter(TwitchStream.class, new ProtoJsonDeserializer<>(TwitchStream.class))
+            .create();
+
+    private byte[] payload;
+
+    private JsonObject tree;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream is = StreamsDecodeBenchmark.class.getResourceAsStream("/kraken/streams.json")) {
+            payload = ByteStreams.toByteArray(is);
+        }
+        tree = new JsonParser().parse(new String(payload, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    @Benchmark
+    public StreamsResponse treeReserialize() throws IOException {
+        final InputStream is = new ByteArrayInputStream(payload);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+        final byte[] buf = new byte[1024];
+        int bytesRead;
+        while ((bytesRead = is.read(buf, 0, buf.length)) > 0) {
+            baos.write(buf, 0, bytesRead);
+        }
+        final String content = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+
+        final JsonObject root = new JsonParser().parse(content).getAsJsonObject();
+        final StreamsResponse.Builder response = StreamsResponse.newBuilder()
+                .setTimestamp(System.currentTimeMillis());
+        for (JsonElement stream : root.getAsJsonArray("streams")) {
+            final String json = TREE_GSON.toJson(stream);
+            response.addStreams(TREE_GSON.fromJson(json, TwitchStream.class));
+        }
+        return response.build();
+    }
+
+    /**
+     * Just the {@link ProtoJsonDeserializer} part of the old path, over an already parsed tree.
+     */
+    @Benchmark
+    public StreamsResponse treeDeserialize() {
+        final StreamsResponse.Builder response = StreamsResponse.newBuilder()
+                .setTimestamp(System.currentTimeMillis());
+        for (JsonElement stream : tree.getAsJsonArray("streams")) {
+            response.addStreams(TREE_GSON.fromJson(stream, TwitchStream.class));
+        }
+        return response.build();
+    }
+
+    @Benchmark
+    public StreamsResponse streaming() throws IOException {
+        return BasicTwitchApiService.parseContent(new ByteArrayInputStream(payload),
+                new BasicTwitchApiService.StreamsHandler("Dota 2"));
+    }
+}
@@ -0,0 +1,57 @@
+package org.jchien.twitchbrowser.twitch;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain protobuf serialize and parse of a full page of streams, without the cache envelope or compression. This is
+ * what every grpc response and cache entry pays at minimum.
+ *
+ * The response is built once, so serialize doesn't include computing the serialized size, protobuf memoizes it.
+ *
+ * ./gradlew jmh -PjmhArgs="StreamsProto -prof gc"
+ *
+ * @author jchien
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamsProtoBenchmark {
+    private StreamsResponse response;
+
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        response = BasicTwitchApiService.parseContent(new ByteArrayInputStream(KrakenDecodeBenchmark.load("/kraken/streams.json")),
+                new BasicTwitchApiService.StreamsHandler("Dota 2"));
+        serialized = response.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return response.toByteArray();
+    }
+
+    @Benchmark
+    public StreamsResponse parse() throws InvalidProtocolBufferException {
+        return StreamsResponse.parseFrom(serialized);
+    }
+}
@@ -0,0 +1,233 @@
+package org.jchien.twitchbrowser.loadtest;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jchien.twitchbrowser.util.LoggingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for api.twitch.tv, answering /kraken/streams and /kraken/games/top with recorded payloads. Every streams
+ * request gets the same page back whatever the game or offset, which is fine for the service since it doesn't look.
+ *
+ * How badly it behaves can be changed while it's running: how long it waits before answering, how often it answers
+ * with a 503, and how often it trickles the body out a chunk at a time so the client's reads are slow.
+ *
+ * Run on its own and point twibro.krakenBaseUrl at it:
+ *   ./gradlew fakeKraken -PloadtestArgs="--port=8090 --latencyMillis=100 --errorRate=0.05"
+ *
+ * @author jchien
+ */
+public class FakeKrakenServer implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(FakeKrakenServer.class);
+
+    static final String STREAMS_PAYLOAD = "/kraken/streams.json";
+
+    static final String GAMES_PAYLOAD = "/kraken/games_top.json";
+
+    private static final byte[] NOT_FOUND = "{\"error\":\"Not Found\",\"status\":404,\"message\":null}".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] UNAVAILABLE = "{\"error\":\"Service Unavailable\",\"status\":503,\"message\":\"\"}".getBytes(StandardCharsets.UTF_8);
+
+    // slow reads are written this much at a time
+    private static final int SLOW_READ_CHUNK_BYTES = 1024;
+
+    private final byte[] streamsPayload;
+
+    private final byte[] gamesPayload;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new LoggingThreadFactory("FakeKrakenThread"));
+
+    private volatile long latencyMillis = 0;
+
+    private volatile long latencyJitterMillis = 0;
+
+    private volatile double errorRate = 0;
+
+    private volatile double slowReadRate = 0;
+
+    private volatile long slowReadChunkDelayMillis = 0;
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private final AtomicLong slowReadCount = new AtomicLong();
+
+    /**
+     * @param port 0 for any free one, see {@link #getBaseUrl()}
+     */
+    public FakeKrakenServer(int port) throws IOException {
+        this(port, load(STREAMS_PAYLOAD), load(GAMES_PAYLOAD));
+    }
+
+    public FakeKrakenServer(int port, byte[] streamsPayload, byte[] gamesPayload) throws IOException {
+        this.streamsPayload = streamsPayload;
+        this.gamesPayload = gamesPayload;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    static byte[] load(String resource) throws IOException {
+        try (InputStream is = FakeKrakenServer.class.getResourceAsStream(resource)) {
+            if (is == null) {
+                throw new IOException(resource + " isn't on the classpath");
+            }
+            return ByteStreams.toByteArray(is);
+        }
+    }
+
+    public void start() {
+        server.start();
+        LOG.info("fake kraken listening on " + getBaseUrl());
+    }
+
+    /**
+     * @return what to set twibro.krakenBaseUrl to
+     */
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Every response waits latencyMillis plus up to jitterMillis more, picked uniformly.
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = jitterMillis;
+    }
+
+    /**
+     * @param errorRate fraction of requests answered with a 503
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param slowReadRate fraction of responses written SLOW_READ_CHUNK_BYTES at a time
+     * @param chunkDelayMillis pause after each chunk, the client times out if this is over its read timeout
+     */
+    public void setSlowReads(double slowReadRate, long chunkDelayMillis) {
+        this.slowReadRate = slowReadRate;
+        this.slowReadChunkDelayMillis = chunkDelayMillis;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public long getSlowReadCount() {
+        return slowReadCount.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requestCount.incrementAndGet();
+
+            final byte[] payload;
+            switch (exchange.getRequestURI().getPath()) {
+                case "/kraken/streams":
+                    payload = streamsPayload;
+                    break;
+                case "/kraken/games/top":
+                    payload = gamesPayload;
+                    break;
+                default:
+                    send(exchange, 404, NOT_FOUND, false);
+                    return;
+            }
+
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final long jitter = latencyJitterMillis;
+            sleep(latencyMillis + (jitter > 0 ? random.nextLong(jitter + 1) : 0));
+
+            if (random.nextDouble() < errorRate) {
+                errorCount.incrementAndGet();
+                send(exchange, 503, UNAVAILABLE, false);
+                return;
+            }
+
+            final boolean slow = random.nextDouble() < slowReadRate;
+            if (slow) {
+                slowReadCount.incrementAndGet();
+            }
+            send(exchange, 200, payload, slow);
+        } catch (IOException e) {
+            // usually the client giving up on a slow read
+            LOG.debug("fake kraken response not sent: " + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body, boolean slow) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        final OutputStream os = exchange.getResponseBody();
+        if (!slow) {
+            os.write(body);
+            return;
+        }
+
+        for (int offset = 0; offset < body.length; offset += SLOW_READ_CHUNK_BYTES) {
+            os.write(body, offset, Math.min(SLOW_READ_CHUNK_BYTES, body.length - offset));
+            os.flush();
+            sleep(slowReadChunkDelayMillis);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] argv) throws IOException {
+        final LoadTestArgs args = new LoadTestArgs(argv);
+        final FakeKrakenServer kraken = new FakeKrakenServer(args.getInt("port", 8090));
+        configure(kraken, args, "");
+        kraken.start();
+    }
+
+    /**
+     * Applies latencyMillis, jitterMillis, errorRate, slowReadRate and slowReadDelayMillis, each name prefixed with
+     * prefix.
+     */
+    static void configure(FakeKrakenServer kraken, LoadTestArgs args, String prefix) {
+        kraken.setLatency(args.getLong(prefix + "latencyMillis", 0), args.getLong(prefix + "jitterMillis", 0));
+        kraken.setErrorRate(args.getDouble(prefix + "errorRate", 0));
+        kraken.setSlowReads(args.getDouble(prefix + "slowReadRate", 0), args.getLong(prefix + "slowReadDelayMillis", 100));
+    }
+}
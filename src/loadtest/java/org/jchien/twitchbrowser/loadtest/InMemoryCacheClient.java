@@ -0,0 +1,217 @@
+package org.jchien.twitchbrowser.loadtest;
+
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.SetArgs;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import com.lambdaworks.redis.output.CommandOutput;
+import com.lambdaworks.redis.output.StatusOutput;
+import com.lambdaworks.redis.output.ValueListOutput;
+import com.lambdaworks.redis.output.ValueOutput;
+import com.lambdaworks.redis.protocol.AsyncCommand;
+import com.lambdaworks.redis.protocol.Command;
+import com.lambdaworks.redis.protocol.CommandArgs;
+import com.lambdaworks.redis.protocol.CommandType;
+import com.lambdaworks.redis.protocol.ProtocolKeyword;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.jchien.twitchbrowser.cache.CacheClient;
+import org.jchien.twitchbrowser.cache.LettuceCacheClient;
+import org.jchien.twitchbrowser.cache.StringByteArrayCodec;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps everything in a map instead of redis, for benchmarks and load testing without a redis server. Replaces
+ * {@link LettuceCacheClient} in a {@link LoadTestServer}, nothing is shared between instances then.
+ *
+ * Only the commands the service actually sends are supported: GET, SET with or without an expiry, and MGET. Anything
+ * else throws UnsupportedOperationException.
+ *
+ * Commands complete on the calling thread before they're returned. Replies go through the same outputs lettuce would
+ * use.
+ *
+ * @author jchien
+ */
+public class InMemoryCacheClient implements CacheClient {
+    private static final byte[] OK = "OK".getBytes(StandardCharsets.US_ASCII);
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private final RedisClusterAsyncCommands<String, byte[]> commands = (RedisClusterAsyncCommands<String, byte[]>) Proxy.newProxyInstance(
+            RedisClusterAsyncCommands.class.getClassLoader(),
+            new Class<?>[] { RedisClusterAsyncCommands.class },
+            (proxy, method, args) -> invoke(method, args));
+
+    @Override
+    public RedisClusterAsyncCommands<String, byte[]> getAsyncCommands(String key) {
+        return commands;
+    }
+
+    @Override
+    public RedisClusterAsyncCommands<String, byte[]> getAsyncCommands() {
+        return commands;
+    }
+
+    @Override
+    public RedisClusterAsyncCommands<String, byte[]> getPrimerAsyncCommands() {
+        return commands;
+    }
+
+    @Override
+    public RedisClusterAsyncCommands<String, byte[]> getHealthAsyncCommands() {
+        return commands;
+    }
+
+    @Override
+    public void track(RedisClusterAsyncCommands<String, byte[]> commands, RedisFuture<?> command, long startNanos) {
+        // nothing's ever in flight
+    }
+
+    @Override
+    public int getOpenServingConnectionCount() {
+        return 1;
+    }
+
+    @Override
+    public int getServingConnectionCount() {
+        return 1;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        entries.clear();
+    }
+
+    private Object invoke(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "get":
+                return get((String) args[0]);
+            case "set":
+                return set((String) args[0], (byte[]) args[1], args.length > 2 ? (SetArgs) args[2] : null);
+            case "mget":
+                return mget(Arrays.asList((String[]) args[0]));
+            case "toString":
+                return "InMemoryCacheClient commands";
+            case "hashCode":
+                return System.identityHashCode(this);
+            case "equals":
+                return args[0] == commands;
+        }
+        throw new UnsupportedOperationException(method.getName() + " isn't supported by InMemoryCacheClient");
+    }
+
+    private RedisFuture<byte[]> get(String key) {
+        final ValueOutput<String, byte[]> output = new ValueOutput<>(StringByteArrayCodec.INSTANCE);
+        output.set(lookup(key));
+        return complete(CommandType.GET, output);
+    }
+
+    private RedisFuture<String> set(String key, byte[] value, SetArgs setArgs) {
+        long expiresAt = Long.MAX_VALUE;
+        if (setArgs != null) {
+            // SetArgs only knows how to write itself out, so read back what it wrote
+            final CommandArgs<String, byte[]> commandArgs = new CommandArgs<>(StringByteArrayCodec.INSTANCE);
+            setArgs.build(commandArgs);
+            final List<byte[]> parts = decode(commandArgs);
+            for (int i = 0; i + 1 < parts.size(); i++) {
+                final String arg = new String(parts.get(i), StandardCharsets.US_ASCII);
+                if ("PX".equalsIgnoreCase(arg)) {
+                    expiresAt = System.currentTimeMillis() + parseLong(parts.get(++i));
+                } else if ("EX".equalsIgnoreCase(arg)) {
+                    expiresAt = System.currentTimeMillis() + parseLong(parts.get(++i)) * 1000;
+                }
+            }
+        }
+        entries.put(key, new Entry(value.clone(), expiresAt));
+
+        final StatusOutput<String, byte[]> output = new StatusOutput<>(StringByteArrayCodec.INSTANCE);
+        output.set(ByteBuffer.wrap(OK));
+        return complete(CommandType.SET, output);
+    }
+
+    private RedisFuture<List<byte[]>> mget(List<String> keys) {
+        final ValueListOutput<String, byte[]> output = new ValueListOutput<>(StringByteArrayCodec.INSTANCE);
+        output.multi(keys.size());
+        for (String key : keys) {
+            output.set(lookup(key));
+        }
+        return complete(CommandType.MGET, output);
+    }
+
+    private ByteBuffer lookup(String key) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return ByteBuffer.wrap(entry.value).asReadOnlyBuffer();
+    }
+
+    private static <T> RedisFuture<T> complete(ProtocolKeyword type, CommandOutput<String, byte[], T> output) {
+        final AsyncCommand<String, byte[], T> command = new AsyncCommand<>(new Command<>(type, output));
+        command.complete();
+        return command;
+    }
+
+    private static long parseLong(byte[] ascii) {
+        return Long.parseLong(new String(ascii, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return each argument as it would go over the wire
+     */
+    private static List<byte[]> decode(CommandArgs<?, ?> args) {
+        final ByteBuf buf = Unpooled.buffer();
+        try {
+            args.encode(buf);
+
+            // each one is a bulk string, $<length>\r\n<bytes>\r\n
+            final List<byte[]> parts = new ArrayList<>(args.count());
+            while (buf.isReadable()) {
+                if (buf.readByte() != '$') {
+                    throw new IllegalStateException("unexpected encoding of " + args);
+                }
+                int length = 0;
+                byte b;
+                while ((b = buf.readByte()) != '\r') {
+                    length = length * 10 + (b - '0');
+                }
+                buf.skipBytes(1);
+                final byte[] part = new byte[length];
+                buf.readBytes(part);
+                buf.skipBytes(2);
+                parts.add(part);
+            }
+            return parts;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static class Entry {
+        private final byte[] value;
+
+        private final long expiresAt;
+
+        Entry(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package org.jchien.twitchbrowser.loadtest;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.jchien.twitchbrowser.PopularGamesRequest;
+import org.jchien.twitchbrowser.StreamsRequest;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.jchien.twitchbrowser.TwitchBrowserGrpcService;
+import org.jchien.twitchbrowser.TwitchBrowserServiceGrpc;
+import org.jchien.twitchbrowser.twitch.CachingTwitchApiService;
+import org.jchien.twitchbrowser.twitch.TwitchGame;
+import org.jchien.twitchbrowser.util.LoggingThreadFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives getStreams against TwitchBrowserGrpcService and reports throughput, latency percentiles and how many
+ * responses came from the cache.
+ *
+ * By default everything runs in this process with nothing on the network: a {@link FakeKrakenServer}, and the
+ * service itself started through spring as a {@link LoadTestServer} pointed at it. Pass --target=host:port to
+ * load an already running server instead.
+ *
+ * Games are picked from getPopularGames with a zipf distribution over their rank, and pages uniformly from the first
+ * --pages. Each of the --concurrency workers sends its next request as soon as the last one comes back, so latency
+ * here doesn't count time a request would have spent waiting to be sent under an open arrival rate. Each call has a
+ * --deadlineMillis deadline, 5000 by default.
+ *
+ *   ./gradlew loadtest -PloadtestArgs="--concurrency=64 --durationSeconds=60 --zipfExponent=1.1 --kraken.latencyMillis=80"
+ *
+ * Anything starting with twibro., server., spring., logging. or management. is passed on to the embedded service, e.g.
+ * --twibro.localCacheEnabled=false.
+ *
+ * @author jchien
+ */
+public class LoadGenerator {
+    private static final String[] SERVICE_ARG_PREFIXES = { "twibro.", "server.", "spring.", "logging.", "management." };
+
+    private final TwitchBrowserServiceGrpc.TwitchBrowserServiceBlockingStub stub;
+
+    private final List<String> games;
+
+    private final ZipfSampler gameSampler;
+
+    private final int pages;
+
+    private final long deadlineMillis;
+
+    private LoadGenerator(ManagedChannel channel, int numGames, double zipfExponent, int pages, long deadlineMillis) {
+        this.stub = TwitchBrowserServiceGrpc.newBlockingStub(channel);
+        this.pages = pages;
+        this.deadlineMillis = deadlineMillis;
+
+        final List<String> games = new ArrayList<>();
+        // generous, it's only the once and it's probably a cache miss
+        for (TwitchGame game : stub.withDeadlineAfter(Math.max(deadlineMillis, 5000), TimeUnit.MILLISECONDS)
+                .getPopularGames(PopularGamesRequest.newBuilder().setLimit(numGames).build())
+                .getGamesList()) {
+            games.add(game.getGameName());
+        }
+        if (games.isEmpty()) {
+            throw new IllegalStateException("getPopularGames came back empty, nothing to request");
+        }
+        this.games = games;
+        this.gameSampler = new ZipfSampler(games.size(), zipfExponent);
+    }
+
+    private StreamsRequest nextRequest(ThreadLocalRandom random) {
+        return StreamsRequest.newBuilder()
+                .setGameName(games.get(gameSampler.next(random)))
+                .setStart(random.nextInt(pages) * CachingTwitchApiService.GAME_STREAM_LIMIT)
+                .setLimit(CachingTwitchApiService.GAME_STREAM_LIMIT)
+                .build();
+    }
+
+    private Stats run(int concurrency, long warmupSeconds, long durationSeconds) throws InterruptedException {
+        final long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        final List<Stats> workerStats = new ArrayList<>(concurrency);
+        final ExecutorService workers = Executors.newFixedThreadPool(concurrency, new LoggingThreadFactory("LoadWorker"));
+        for (int i = 0; i < concurrency; i++) {
+            final Stats stats = new Stats();
+            workerStats.add(stats);
+            workers.execute(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                long start;
+                while ((start = System.nanoTime()) < end) {
+                    final StreamsRequest request = nextRequest(random);
+                    try {
+                        final StreamsResponse response = stub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS)
+                                .getStreams(request);
+                        if (start >= measureStart) {
+                            stats.recordSuccess(System.nanoTime() - start, response);
+                        }
+                    } catch (StatusRuntimeException e) {
+                        if (start >= measureStart) {
+                            stats.recordError(e.getStatus().getCode());
+                        }
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(warmupSeconds + durationSeconds + deadlineMillis / 1000 + 10, TimeUnit.SECONDS);
+
+        final Stats total = new Stats();
+        for (Stats stats : workerStats) {
+            total.add(stats);
+        }
+        return total;
+    }
+
+    public static void main(String[] argv) throws Exception {
+        final LoadTestArgs args = new LoadTestArgs(argv);
+        final int concurrency = args.getInt("concurrency", 32);
+        final long warmupSeconds = args.getLong("warmupSeconds", 5);
+        final long durationSeconds = args.getLong("durationSeconds", 30);
+        final int numGames = args.getInt("games", 100);
+        final double zipfExponent = args.getDouble("zipfExponent", 1.0);
+        final int pages = args.getInt("pages", 1);
+        final long deadlineMillis = args.getLong("deadlineMillis", 5000);
+        final String target = args.getString("target", null);
+
+        FakeKrakenServer kraken = null;
+        ConfigurableApplicationContext service = null;
+        ManagedChannel channel = null;
+        int exitStatus = 1;
+        try {
+            final String host;
+            final int port;
+            if (target != null) {
+                host = target.substring(0, target.lastIndexOf(':'));
+                port = Integer.parseInt(target.substring(target.lastIndexOf(':') + 1));
+            } else {
+                kraken = new FakeKrakenServer(0);
+                FakeKrakenServer.configure(kraken, args, "kraken.");
+                kraken.start();
+
+                host = "localhost";
+                port = freePort();
+                service = startService(kraken, port, args);
+            }
+
+            channel = ManagedChannelBuilder.forAddress(host, port)
+                    .usePlaintext(true)
+                    .build();
+
+            final LoadGenerator generator = new LoadGenerator(channel, numGames, zipfExponent, pages, deadlineMillis);
+            System.out.println(String.format("%d workers, %d s warmup then %d s measured, %d games zipf %.2f (top 10 get %.1f%%), %d page(s) each",
+                    concurrency, warmupSeconds, durationSeconds, generator.games.size(), zipfExponent,
+                    100 * generator.gameSampler.headShare(10), pages));
+
+            final long krakenRequestsBefore = kraken != null ? kraken.getRequestCount() : 0;
+            final Stats stats = generator.run(concurrency, warmupSeconds, durationSeconds);
+            stats.print(durationSeconds);
+            if (kraken != null) {
+                System.out.println(String.format("kraken       %d requests during the run, %d errors and %d slow reads in total",
+                        kraken.getRequestCount() - krakenRequestsBefore, kraken.getErrorCount(), kraken.getSlowReadCount()));
+            }
+            exitStatus = 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (channel != null) {
+                channel.shutdownNow();
+            }
+            if (service != null) {
+                // otherwise closing the context waits on a server nobody stopped
+                service.getBean(TwitchBrowserGrpcService.class).stop();
+                service.close();
+            }
+            if (kraken != null) {
+                kraken.close();
+            }
+        }
+        // spring and grpc leave non-daemon threads behind
+        System.exit(exitStatus);
+    }
+
+    private static ConfigurableApplicationContext startService(FakeKrakenServer kraken, int port, LoadTestArgs args) {
+        final Map<String, String> serviceArgs = new LinkedHashMap<>();
+        serviceArgs.put("twibro.port", Integer.toString(port));
+        serviceArgs.put("server.port", "0");
+        serviceArgs.put("twibro.krakenBaseUrl", kraken.getBaseUrl());
+        // a line per kraken call otherwise
+        serviceArgs.put("logging.level.org.jchien.twitchbrowser", "WARN");
+        for (String arg : args.getPassThrough(SERVICE_ARG_PREFIXES)) {
+            final int eq = arg.indexOf('=');
+            serviceArgs.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+
+        final List<String> springArgs = new ArrayList<>();
+        for (Map.Entry<String, String> entry : serviceArgs.entrySet()) {
+            springArgs.add("--" + entry.getKey() + "=" + entry.getValue());
+        }
+        return SpringApplication.run(LoadTestServer.class, springArgs.toArray(new String[springArgs.size()]));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * What one worker saw, or all of them once added together.
+     */
+    private static class Stats {
+        private long[] latencyNanos = new long[1024];
+
+        private int count = 0;
+
+        private long fromCacheCount = 0;
+
+        private long staleCount = 0;
+
+        private final Map<Status.Code, Long> errors = new EnumMap<>(Status.Code.class);
+
+        void recordSuccess(long nanos, StreamsResponse response) {
+            if (count == latencyNanos.length) {
+                latencyNanos = Arrays.copyOf(latencyNanos, count * 2);
+            }
+            latencyNanos[count++] = nanos;
+            if (response.getFromCache()) {
+                fromCacheCount++;
+            }
+            if (response.getStale()) {
+                staleCount++;
+            }
+        }
+
+        void recordError(Status.Code code) {
+            errors.merge(code, 1L, Long::sum);
+        }
+
+        void add(Stats other) {
+            if (count + other.count > latencyNanos.length) {
+                latencyNanos = Arrays.copyOf(latencyNanos, count + other.count);
+            }
+            System.arraycopy(other.latencyNanos, 0, latencyNanos, count, other.count);
+            count += other.count;
+            fromCacheCount += other.fromCacheCount;
+            staleCount += other.staleCount;
+            for (Map.Entry<Status.Code, Long> error : other.errors.entrySet()) {
+                errors.merge(error.getKey(), error.getValue(), Long::sum);
+            }
+        }
+
+        void print(long durationSeconds) {
+            long errorCount = 0;
+            for (long n : errors.values()) {
+                errorCount += n;
+            }
+            System.out.println(String.format("requests     %d ok, %.1f/s", count, (double) count / durationSeconds));
+            System.out.println(String.format("errors       %d %s", errorCount, errors.isEmpty() ? "" : errors.toString()));
+            if (count == 0) {
+                return;
+            }
+
+            final long[] sorted = Arrays.copyOf(latencyNanos, count);
+            Arrays.sort(sorted);
+            System.out.println(String.format("latency ms   p50 %.2f  p99 %.2f  p999 %.2f  max %.2f",
+                    percentileMillis(sorted, 0.5), percentileMillis(sorted, 0.99), percentileMillis(sorted, 0.999),
+                    sorted[sorted.length - 1] / 1e6));
+            System.out.println(String.format("cache        %.2f%% from cache, %.2f%% stale",
+                    100.0 * fromCacheCount / count, 100.0 * staleCount / count));
+        }
+
+        private static double percentileMillis(long[] sorted, double p) {
+            final int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+}
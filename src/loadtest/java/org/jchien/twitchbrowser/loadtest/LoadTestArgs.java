@@ -0,0 +1,64 @@
+package org.jchien.twitchbrowser.loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * --name=value arguments, same format spring boot takes so the two can be mixed on one command line.
+ *
+ * @author jchien
+ */
+class LoadTestArgs {
+    private final Map<String, String> values = new LinkedHashMap<>();
+
+    LoadTestArgs(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("expected --name=value, got " + arg);
+            }
+            final int eq = arg.indexOf('=');
+            if (eq < 0) {
+                values.put(arg.substring(2), "true");
+            } else {
+                values.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+    }
+
+    String getString(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    int getInt(String name, int defaultValue) {
+        final String value = values.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    long getLong(String name, long defaultValue) {
+        final String value = values.get(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    double getDouble(String name, double defaultValue) {
+        final String value = values.get(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    /**
+     * @return every argument whose name starts with one of the prefixes, as it was given
+     */
+    List<String> getPassThrough(String... prefixes) {
+        final List<String> passThrough = new ArrayList<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            for (String prefix : prefixes) {
+                if (entry.getKey().startsWith(prefix)) {
+                    passThrough.add("--" + entry.getKey() + "=" + entry.getValue());
+                    break;
+                }
+            }
+        }
+        return passThrough;
+    }
+}
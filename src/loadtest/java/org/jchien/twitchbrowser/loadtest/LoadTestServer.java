@@ -0,0 +1,31 @@
+package org.jchien.twitchbrowser.loadtest;
+
+import org.jchien.twitchbrowser.TwitchBrowserServer;
+import org.jchien.twitchbrowser.cache.LettuceCacheClient;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * The service as {@link TwitchBrowserServer} sets it up, but caching in an {@link InMemoryCacheClient} instead of
+ * redis.
+ *
+ * @author jchien
+ */
+@Configuration
+@EnableAutoConfiguration
+@EnableConfigurationProperties
+@EnableScheduling
+@ComponentScan(basePackageClasses = TwitchBrowserServer.class,
+        excludeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE,
+                classes = { TwitchBrowserServer.class, LettuceCacheClient.class }))
+public class LoadTestServer {
+    @Bean
+    public InMemoryCacheClient inMemoryCacheClient() {
+        return new InMemoryCacheClient();
+    }
+}
@@ -0,0 +1,44 @@
+package org.jchien.twitchbrowser.loadtest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks ranks 0 to n-1 with probability proportional to 1 / (rank + 1)^exponent. Exponent 0 is uniform, around 1 is
+ * the usual long tail where the top few games get most of the requests.
+ *
+ * @author jchien
+ */
+class ZipfSampler {
+    // cumulative probability of each rank
+    private final double[] cdf;
+
+    ZipfSampler(int n, double exponent) {
+        if (n < 1) {
+            throw new IllegalArgumentException("need at least one rank, got " + n);
+        }
+
+        cdf = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= total;
+        }
+    }
+
+    int next(Random random) {
+        final int i = Arrays.binarySearch(cdf, random.nextDouble());
+        // not found comes back as -(insertion point) - 1, the insertion point is the rank
+        return Math.min(i >= 0 ? i : -i - 1, cdf.length - 1);
+    }
+
+    /**
+     * @return chance of picking one of the first k ranks
+     */
+    double headShare(int k) {
+        return cdf[Math.min(k, cdf.length) - 1];
+    }
+}
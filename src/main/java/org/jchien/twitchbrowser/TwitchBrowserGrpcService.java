@@ -1,10 +1,20 @@
 package org.jchien.twitchbrowser;
 
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Context;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import org.jchien.twitchbrowser.twitch.CachingTwitchApiService;
+import org.jchien.twitchbrowser.grpc.CallCancellation;
+import org.jchien.twitchbrowser.grpc.GrpcMetricsInterceptor;
+import org.jchien.twitchbrowser.grpc.GrpcServerExecutor;
+import org.jchien.twitchbrowser.twitch.StreamsWatchRegistry;
 import org.jchien.twitchbrowser.twitch.TwitchApiService;
+import org.jchien.twitchbrowser.util.CompletableFutures;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,6 +24,13 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
 
 /**
  * @author jchien
@@ -27,14 +44,35 @@ public class TwitchBrowserGrpcService implements CommandLineRunner {
     private final Server server;
 
     @Autowired
-    public TwitchBrowserGrpcService(int port, @Qualifier("cachingTwitchApiService") TwitchApiService service) {
-        this(ServerBuilder.forPort(port), port, service);
+    public TwitchBrowserGrpcService(int port,
+                                    @Qualifier("cachingTwitchApiService") TwitchApiService service,
+                                    StreamsWatchRegistry watchRegistry,
+                                    GrpcServerExecutor serverExecutor,
+                                    GrpcMetricsInterceptor metricsInterceptor) {
+        this(serverExecutor.configure(ServerBuilder.forPort(port)),
+                port,
+                service,
+                watchRegistry,
+                getInterceptors(serverExecutor, metricsInterceptor));
+        LOG.info("gRPC calls run on " + serverExecutor.getType() + " executor");
     }
 
-    public TwitchBrowserGrpcService(ServerBuilder<?> serverBuilder, int port, TwitchApiService service) {
+    private static ServerInterceptor[] getInterceptors(GrpcServerExecutor serverExecutor,
+                                                       GrpcMetricsInterceptor metricsInterceptor) {
+        final List<ServerInterceptor> interceptors = new ArrayList<>(serverExecutor.getInterceptors());
+        // last one runs first, so calls rejected by the others are still timed
+        interceptors.add(metricsInterceptor);
+        return interceptors.toArray(new ServerInterceptor[interceptors.size()]);
+    }
+
+    public TwitchBrowserGrpcService(ServerBuilder<?> serverBuilder,
+                                    int port,
+                                    TwitchApiService service,
+                                    StreamsWatchRegistry watchRegistry,
+                                    ServerInterceptor... interceptors) {
         this.port = port;
         this.service = service;
-        this.server = serverBuilder.addService(new TwitchBrowserService(service))
+        this.server = serverBuilder.addService(ServerInterceptors.intercept(new TwitchBrowserService(service, watchRegistry), interceptors))
                 .build();
     }
 
@@ -80,33 +118,110 @@ public class TwitchBrowserGrpcService implements CommandLineRunner {
     }
 
     private static class TwitchBrowserService extends TwitchBrowserServiceGrpc.TwitchBrowserServiceImplBase {
+        private static final int MAX_BATCH_REQUESTS = 100;
+
         private final TwitchApiService twitchApiService;
 
-        public TwitchBrowserService(TwitchApiService twitchApiService) {
+        private final StreamsWatchRegistry watchRegistry;
+
+        public TwitchBrowserService(TwitchApiService twitchApiService, StreamsWatchRegistry watchRegistry) {
             this.twitchApiService = twitchApiService;
+            this.watchRegistry = watchRegistry;
         }
 
         @Override
         public void getStreams(StreamsRequest request, StreamObserver<StreamsResponse> responseObserver) {
-            try {
-                StreamsResponse response = twitchApiService.getStreams(request);
-                responseObserver.onNext(response);
-            } catch (IOException e) {
-                // what happens if multiple errors are sent?
-                responseObserver.onError(e);
+            final Context context = Context.current();
+            final CompletableFuture<StreamsResponse> future = twitchApiService.getStreamsAsync(request);
+            cancelWithCall(Collections.singletonList(future));
+            // completed from whichever thread finishes the work, so the grpc executor isn't stuck waiting on it
+            future.whenComplete((response, t) -> complete(responseObserver, context, response, t));
+        }
+
+        @Override
+        public void getStreamsBatch(StreamsBatchRequest request, StreamObserver<StreamsBatchResponse> responseObserver) {
+            if (request.getRequestsCount() > MAX_BATCH_REQUESTS) {
+                responseObserver.onError(Status.INVALID_ARGUMENT
+                        .withDescription("at most " + MAX_BATCH_REQUESTS + " requests per batch, got " + request.getRequestsCount())
+                        .asRuntimeException());
+                return;
             }
 
-            responseObserver.onCompleted();
+            final List<CompletableFuture<StreamsResponse>> futures = twitchApiService.getStreamsBatchAsync(request.getRequestsList());
+            cancelWithCall(futures);
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                    .whenComplete((v, ignored) -> {
+                        // failures are reported per result, the batch itself succeeds
+                        final StreamsBatchResponse.Builder response = StreamsBatchResponse.newBuilder();
+                        for (CompletableFuture<StreamsResponse> future : futures) {
+                            response.addResults(toBatchResult(future));
+                        }
+                        complete(responseObserver, null, response.build(), null);
+                    });
+        }
+
+        private static StreamsBatchResult toBatchResult(CompletableFuture<StreamsResponse> future) {
+            try {
+                return StreamsBatchResult.newBuilder()
+                        .setResponse(future.join())
+                        .build();
+            } catch (CompletionException | CancellationException e) {
+                final Throwable t = CompletableFutures.unwrap(e);
+                final Status status = Status.fromThrowable(t);
+                return StreamsBatchResult.newBuilder()
+                        .setError(StreamsError.newBuilder()
+                                .setCode(status.getCode().value())
+                                .setMessage(status.getDescription() != null ? status.getDescription() : String.valueOf(t)))
+                        .build();
+            }
         }
 
         @Override
         public void getPopularGames(PopularGamesRequest request, StreamObserver<PopularGamesResponse> responseObserver) {
-            try {
-                PopularGamesResponse response = twitchApiService.getPopularGames(request);
-                responseObserver.onNext(response);
-            } catch (IOException e) {
-                responseObserver.onError(e);
+            twitchApiService.getPopularGamesAsync(request)
+                    .whenComplete((response, t) -> complete(responseObserver, null, response, t));
+        }
+
+        @Override
+        public void watchStreams(StreamsRequest request, StreamObserver<StreamsResponse> responseObserver) {
+            watchRegistry.watch(request, (ServerCallStreamObserver<StreamsResponse>) responseObserver);
+        }
+
+        @Override
+        public void watchStreamsDelta(StreamsRequest request, StreamObserver<StreamsUpdate> responseObserver) {
+            watchRegistry.watchDelta(request, (ServerCallStreamObserver<StreamsUpdate>) responseObserver);
+        }
+
+        /**
+         * Cancels the futures if the client cancels or the deadline passes first, so nothing keeps working on
+         * responses nobody will read. The context is also cancelled once the call is done, by then it's a no-op.
+         */
+        private static void cancelWithCall(List<? extends Future<?>> futures) {
+            Context.current().addListener(context -> {
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        /**
+         * @param context the call's context if its futures are cancelled with it, so their cancellation can be
+         *                reported as what actually happened
+         */
+        private static <T> void complete(StreamObserver<T> responseObserver, Context context, T response, Throwable t) {
+            if (((ServerCallStreamObserver<T>) responseObserver).isCancelled()) {
+                // nobody to tell
+                return;
+            }
+            if (t != null) {
+                t = CompletableFutures.unwrap(t);
+                if (t instanceof CancellationException && context != null && context.isCancelled()) {
+                    t = CallCancellation.toException(context, "cancelled while in progress");
+                }
+                responseObserver.onError(t);
+                return;
             }
+            responseObserver.onNext(response);
             responseObserver.onCompleted();
         }
     }
@@ -1,5 +1,12 @@
 package org.jchien.twitchbrowser;
 
+import org.jchien.twitchbrowser.cache.CachePayloadCodec;
+import org.jchien.twitchbrowser.cache.LocalStreamsCache;
+import org.jchien.twitchbrowser.cache.RedisTopology;
+import org.jchien.twitchbrowser.grpc.GrpcServerExecutor;
+import org.jchien.twitchbrowser.twitch.BasicTwitchApiService;
+import org.jchien.twitchbrowser.twitch.CachingTwitchApiService;
+import org.jchien.twitchbrowser.twitch.KrakenHttpTransport;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -28,8 +35,90 @@ public class TwitchBrowserServerConfig {
         return props.getTwitchApiClientId();
     }
 
+    @Bean(name="krakenBaseUrl")
+    public String getKrakenBaseUrl() {
+        return props.getKrakenBaseUrl();
+    }
+
     @Bean(name="redisUri")
     public String getRedisUri() {
         return props.getRedisUri();
     }
+
+    @Bean(name="redisTopology")
+    public RedisTopology getRedisTopology() {
+        return props.getRedisTopology();
+    }
+
+    @Bean(name="redisReadFrom")
+    public String getRedisReadFrom() {
+        return props.getRedisReadFrom();
+    }
+
+    @Bean(name="redisConnections")
+    public int getRedisConnections() {
+        return props.getRedisConnections();
+    }
+
+    @Bean(name="staleWhileRevalidate")
+    public boolean isStaleWhileRevalidate() {
+        return props.isStaleWhileRevalidate();
+    }
+
+    @Bean(name="staleMaxAgeMillis")
+    public long getStaleMaxAgeMillis() {
+        return props.getStaleMaxAgeMillis();
+    }
+
+    @Bean(name="cacheMaxAgeMillis")
+    public long getCacheMaxAgeMillis() {
+        return props.getCacheMaxAgeMillis();
+    }
+
+    @Bean(name="gamesStaleMillis")
+    public long getGamesStaleMillis() {
+        return props.getGamesStaleMillis();
+    }
+
+    @Bean(name="batchMaxUpstreamCalls")
+    public int getBatchMaxUpstreamCalls() {
+        return props.getBatchMaxUpstreamCalls();
+    }
+
+    @Bean(name="grpcSlowCallMillis")
+    public long getGrpcSlowCallMillis() {
+        return props.getGrpcSlowCallMillis();
+    }
+
+    @Bean(name="grpcSlowCallLogSize")
+    public int getGrpcSlowCallLogSize() {
+        return props.getGrpcSlowCallLogSize();
+    }
+
+    @Bean
+    public LocalStreamsCache localStreamsCache() {
+        return new LocalStreamsCache(props.isLocalCacheEnabled(),
+                props.getLocalCacheMaxBytes(),
+                CachingTwitchApiService.STALE_MS);
+    }
+
+    @Bean
+    public CachePayloadCodec cachePayloadCodec() {
+        return new CachePayloadCodec(props.getCacheCompression());
+    }
+
+    @Bean
+    public GrpcServerExecutor grpcServerExecutor() {
+        return new GrpcServerExecutor(props.getServerExecutor(),
+                props.getServerThreads(),
+                props.getServerMaxQueuedCalls());
+    }
+
+    @Bean
+    public KrakenHttpTransport krakenHttpTransport() {
+        // waiting for a pooled connection counts against the same budget as connecting
+        return new KrakenHttpTransport(props.getKrakenMaxConnections(),
+                props.getKrakenIdleConnectionMillis(),
+                BasicTwitchApiService.CONNECT_TIMEOUT_MS);
+    }
 }
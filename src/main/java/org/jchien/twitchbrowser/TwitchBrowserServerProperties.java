@@ -1,5 +1,8 @@
 package org.jchien.twitchbrowser;
 
+import org.jchien.twitchbrowser.cache.CacheCompression;
+import org.jchien.twitchbrowser.cache.RedisTopology;
+import org.jchien.twitchbrowser.grpc.ServerExecutorType;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
@@ -15,8 +18,46 @@ public class TwitchBrowserServerProperties {
 
     private String twitchApiClientId;
 
+    private String krakenBaseUrl = "https://api.twitch.tv";
+
     private String redisUri;
 
+    private RedisTopology redisTopology = RedisTopology.STANDALONE;
+
+    private String redisReadFrom = "master";
+
+    private int redisConnections = 2;
+
+    private boolean localCacheEnabled = true;
+
+    private long localCacheMaxBytes = 16 * 1024 * 1024;
+
+    private boolean staleWhileRevalidate = false;
+
+    private long staleMaxAgeMillis = 10 * 60 * 1000;
+
+    private long cacheMaxAgeMillis = 60 * 60 * 1000;
+
+    private long gamesStaleMillis = 60 * 1000;
+
+    private CacheCompression cacheCompression = CacheCompression.NONE;
+
+    private int batchMaxUpstreamCalls = 4;
+
+    private ServerExecutorType serverExecutor = ServerExecutorType.BOUNDED;
+
+    private int serverThreads = 16;
+
+    private int serverMaxQueuedCalls = 1000;
+
+    private long grpcSlowCallMillis = 250;
+
+    private int grpcSlowCallLogSize = 32;
+
+    private int krakenMaxConnections = 32;
+
+    private long krakenIdleConnectionMillis = 30 * 1000;
+
     public int getPort() {
         return port;
     }
@@ -33,6 +74,14 @@ public class TwitchBrowserServerProperties {
         this.twitchApiClientId = twitchApiClientId;
     }
 
+    public String getKrakenBaseUrl() {
+        return krakenBaseUrl;
+    }
+
+    public void setKrakenBaseUrl(String krakenBaseUrl) {
+        this.krakenBaseUrl = krakenBaseUrl;
+    }
+
     public String getRedisUri() {
         return redisUri;
     }
@@ -40,4 +89,148 @@ public class TwitchBrowserServerProperties {
     public void setRedisUri(String redisUri) {
         this.redisUri = redisUri;
     }
+
+    public RedisTopology getRedisTopology() {
+        return redisTopology;
+    }
+
+    public void setRedisTopology(RedisTopology redisTopology) {
+        this.redisTopology = redisTopology;
+    }
+
+    public String getRedisReadFrom() {
+        return redisReadFrom;
+    }
+
+    public void setRedisReadFrom(String redisReadFrom) {
+        this.redisReadFrom = redisReadFrom;
+    }
+
+    public int getRedisConnections() {
+        return redisConnections;
+    }
+
+    public void setRedisConnections(int redisConnections) {
+        this.redisConnections = redisConnections;
+    }
+
+    public boolean isLocalCacheEnabled() {
+        return localCacheEnabled;
+    }
+
+    public void setLocalCacheEnabled(boolean localCacheEnabled) {
+        this.localCacheEnabled = localCacheEnabled;
+    }
+
+    public long getLocalCacheMaxBytes() {
+        return localCacheMaxBytes;
+    }
+
+    public void setLocalCacheMaxBytes(long localCacheMaxBytes) {
+        this.localCacheMaxBytes = localCacheMaxBytes;
+    }
+
+    public boolean isStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public void setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public long getStaleMaxAgeMillis() {
+        return staleMaxAgeMillis;
+    }
+
+    public void setStaleMaxAgeMillis(long staleMaxAgeMillis) {
+        this.staleMaxAgeMillis = staleMaxAgeMillis;
+    }
+
+    public long getCacheMaxAgeMillis() {
+        return cacheMaxAgeMillis;
+    }
+
+    public void setCacheMaxAgeMillis(long cacheMaxAgeMillis) {
+        this.cacheMaxAgeMillis = cacheMaxAgeMillis;
+    }
+
+    public long getGamesStaleMillis() {
+        return gamesStaleMillis;
+    }
+
+    public void setGamesStaleMillis(long gamesStaleMillis) {
+        this.gamesStaleMillis = gamesStaleMillis;
+    }
+
+    public CacheCompression getCacheCompression() {
+        return cacheCompression;
+    }
+
+    public void setCacheCompression(CacheCompression cacheCompression) {
+        this.cacheCompression = cacheCompression;
+    }
+
+    public int getBatchMaxUpstreamCalls() {
+        return batchMaxUpstreamCalls;
+    }
+
+    public void setBatchMaxUpstreamCalls(int batchMaxUpstreamCalls) {
+        this.batchMaxUpstreamCalls = batchMaxUpstreamCalls;
+    }
+
+    public ServerExecutorType getServerExecutor() {
+        return serverExecutor;
+    }
+
+    public void setServerExecutor(ServerExecutorType serverExecutor) {
+        this.serverExecutor = serverExecutor;
+    }
+
+    public int getServerThreads() {
+        return serverThreads;
+    }
+
+    public void setServerThreads(int serverThreads) {
+        this.serverThreads = serverThreads;
+    }
+
+    public int getServerMaxQueuedCalls() {
+        return serverMaxQueuedCalls;
+    }
+
+    public void setServerMaxQueuedCalls(int serverMaxQueuedCalls) {
+        this.serverMaxQueuedCalls = serverMaxQueuedCalls;
+    }
+
+    public long getGrpcSlowCallMillis() {
+        return grpcSlowCallMillis;
+    }
+
+    public void setGrpcSlowCallMillis(long grpcSlowCallMillis) {
+        this.grpcSlowCallMillis = grpcSlowCallMillis;
+    }
+
+    public int getGrpcSlowCallLogSize() {
+        return grpcSlowCallLogSize;
+    }
+
+    public void setGrpcSlowCallLogSize(int grpcSlowCallLogSize) {
+        this.grpcSlowCallLogSize = grpcSlowCallLogSize;
+    }
+
+    public int getKrakenMaxConnections() {
+        return krakenMaxConnections;
+    }
+
+    public void setKrakenMaxConnections(int krakenMaxConnections) {
+        this.krakenMaxConnections = krakenMaxConnections;
+    }
+
+    public long getKrakenIdleConnectionMillis() {
+        return krakenIdleConnectionMillis;
+    }
+
+    public void setKrakenIdleConnectionMillis(long krakenIdleConnectionMillis) {
+        this.krakenIdleConnectionMillis = krakenIdleConnectionMillis;
+    }
 }
@@ -1,71 +1,38 @@
 package org.jchien.twitchbrowser.cache;
 
-import com.lambdaworks.redis.RedisClient;
-import com.lambdaworks.redis.RedisException;
-import com.lambdaworks.redis.api.StatefulRedisConnection;
-import com.lambdaworks.redis.api.async.RedisAsyncCommands;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.stereotype.Component;
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
 
-import javax.annotation.PreDestroy;
 import java.io.Closeable;
-import java.io.IOException;
 
 /**
+ * Where the cache gets its redis commands from. {@link LettuceCacheClient} is the real thing, the load test has
+ * its own that works without a redis server.
+ *
  * @author jchien
  */
-@Component
-public class CacheClient implements Closeable {
+public interface CacheClient extends Closeable {
+    RedisClusterAsyncCommands<String, byte[]> getAsyncCommands(String key);
 
-    private static final Logger LOG = LoggerFactory.getLogger(CacheClient.class);
+    /**
+     * For commands that don't belong to any one key, like MGET. Lettuce splits up MGET and friends on a cluster.
+     */
+    RedisClusterAsyncCommands<String, byte[]> getAsyncCommands();
 
-    private final RedisClient redisClient;
+    RedisClusterAsyncCommands<String, byte[]> getPrimerAsyncCommands();
 
-    private volatile StatefulRedisConnection<String, byte[]> redisConnection;
+    RedisClusterAsyncCommands<String, byte[]> getHealthAsyncCommands();
 
-    @Autowired
-    public CacheClient(@Qualifier("redisUri") String redisUri) {
-        this.redisClient = RedisClient.create(redisUri);
-        try {
-            this.redisConnection = getConnection();
-        } catch (RedisException e) {
-            LOG.warn("unable to establish initial redis connection", e);
-        }
-    }
+    /**
+     * Counts a command towards the in flight count and latency of the connection it went out on.
+     *
+     * @param commands what the command was sent with, from one of the getters here
+     * @param command the command's future, straight after sending it
+     * @param startNanos when it was sent
+     */
+    void track(RedisClusterAsyncCommands<String, byte[]> commands, RedisFuture<?> command, long startNanos);
 
-    private StatefulRedisConnection<String, byte[]> getConnection() {
-        if (redisConnection == null) {
-            synchronized(this) {
-                if (redisConnection == null) {
-                    redisConnection = redisClient.connect(StringByteArrayCodec.INSTANCE);
-                }
-            }
-        }
-        return redisConnection;
-    }
+    int getOpenServingConnectionCount();
 
-    public RedisAsyncCommands<String, byte[]> getAsyncCommands() {
-        StatefulRedisConnection<String, byte[]> conn = getConnection();
-        if (conn != null) {
-            return conn.async();
-        }
-        throw new RedisException("connection to redis unavailable");
-    }
-
-    @Override
-    @PreDestroy
-    public void close() throws IOException {
-        LOG.info("shutting down redis connection and client");
-
-        // seems like log4j2 is getting shutdown before this log message happens so we'll print to stdout too
-        System.out.println("CacheClient: shutting down");
-
-        if (redisConnection != null) {
-            redisConnection.close();
-        }
-        redisClient.shutdown();
-    }
+    int getServingConnectionCount();
 }
@@ -0,0 +1,34 @@
+package org.jchien.twitchbrowser.cache;
+
+/**
+ * How cache entries are compressed, see {@link CachePayloadCodec}. The id is what's written into the envelope so it
+ * must never change or be reused once entries have been written with it.
+ *
+ * @author jchien
+ */
+public enum CacheCompression {
+    /** written as the bare protobuf bytes, same as entries from before there was an envelope */
+    NONE(0),
+    /** deflate with a preset dictionary of strings that show up in every stream, see {@link CachePayloadCodec} */
+    DEFLATE(1),
+    ;
+
+    private final int id;
+
+    CacheCompression(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static CacheCompression forId(int id) {
+        for (CacheCompression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,195 @@
+package org.jchien.twitchbrowser.cache;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Wraps serialized cache entries in a versioned envelope so they can be compressed:
+ *
+ * <pre>
+ * byte 0     0x00, marks an envelope
+ * byte 1     envelope version, currently 1
+ * byte 2     {@link CacheCompression} id
+ * bytes 3-6  uncompressed length, big endian
+ * bytes 7-   compressed payload
+ * </pre>
+ *
+ * A non-empty protobuf message can never start with a zero byte since field number 0 isn't valid, so anything that
+ * doesn't start with one is an entry from before the envelope existed and is parsed as plain protobuf. Entries
+ * written with {@link CacheCompression#NONE} skip the envelope entirely so older instances can still read them.
+ *
+ * Stream titles are all over the place, but most of the bytes in an entry are urls that only differ by channel name,
+ * so a preset dictionary of those does most of the work for a payload this small.
+ *
+ * @author jchien
+ */
+public class CachePayloadCodec implements PublicMetrics {
+    private static final String METRIC_PREFIX = "twibro.cache.codec.";
+
+    private static final byte MAGIC = 0;
+
+    private static final byte VERSION = 1;
+
+    private static final int HEADER_LENGTH = 7;
+
+    // way more than 25 streams could ever take, anything bigger is garbage
+    private static final int MAX_PAYLOAD_LENGTH = 4 * 1024 * 1024;
+
+    // changing this makes everything already written with DEFLATE unreadable, add a new CacheCompression instead.
+    // deflate finds matches closer to the end of the dictionary more cheaply, so the most common strings go last.
+    private static final byte[] DEFLATE_DICTIONARY = String.join("",
+            "Ranked", "ranked", "Road to", "Pro", "MMR", "Immortal", "Divine", "Grandmaster", "Diamond", "Challenger",
+            "giveaway", "GIVEAWAY", "Subs", "subs", "!discord", "!social", "!commands", "!youtube", "!prime",
+            "[EN]", "[RU]", "[ES]", "[PT-BR]", "[DE]", "[FR]", "(EN)", " w/ ", " | ", " - ",
+            "_tv", "tv_", "_TV", "TV_", "gaming", "Gaming", "official", "Official",
+            "https://www.twitch.tv/",
+            "-320x180.jpg",
+            "https://static-cdn.jtvnw.net/previews-ttv/live_user_")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final CacheCompression compression;
+
+    // deflaters hold on to native memory and aren't thread safe, so keep one per thread and reset it between uses
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(Deflater::new);
+
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private final AtomicLong rawBytes = new AtomicLong();
+
+    private final AtomicLong encodedBytes = new AtomicLong();
+
+    /**
+     * @param compression what to write new entries with, entries written with any compression can be read
+     */
+    public CachePayloadCodec(CacheCompression compression) {
+        this.compression = compression;
+    }
+
+    public CacheCompression getCompression() {
+        return compression;
+    }
+
+    public byte[] encode(byte[] payload) {
+        final byte[] encoded;
+        switch (compression) {
+            case DEFLATE:
+                encoded = deflate(payload);
+                break;
+            default:
+                encoded = payload;
+        }
+
+        rawBytes.addAndGet(payload.length);
+        encodedBytes.addAndGet(encoded.length);
+        return encoded;
+    }
+
+    public StreamsResponse decode(byte[] stored) throws IOException {
+        return decode(stored, StreamsResponse.parser());
+    }
+
+    /**
+     * Same as {@link #decode(byte[])} for entries holding some other message.
+     */
+    public <T extends Message> T decode(byte[] stored, Parser<T> parser) throws IOException {
+        if (stored.length == 0 || stored[0] != MAGIC) {
+            // plain protobuf
+            return parser.parseFrom(stored);
+        }
+
+        if (stored.length < HEADER_LENGTH) {
+            throw new IOException("truncated cache entry envelope, length=" + stored.length);
+        }
+
+        final ByteBuffer buf = ByteBuffer.wrap(stored);
+        buf.get();
+        final byte version = buf.get();
+        if (version != VERSION) {
+            throw new IOException("unknown cache entry envelope version " + version);
+        }
+
+        final int compressionId = buf.get();
+        final CacheCompression entryCompression = CacheCompression.forId(compressionId);
+        if (entryCompression == null) {
+            throw new IOException("unknown cache entry compression " + compressionId);
+        }
+
+        final int length = buf.getInt();
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("bad cache entry length " + length);
+        }
+
+        switch (entryCompression) {
+            case DEFLATE:
+                return parser.parseFrom(inflate(stored, HEADER_LENGTH, stored.length - HEADER_LENGTH, length));
+            default:
+                return parser.parseFrom(stored, HEADER_LENGTH, stored.length - HEADER_LENGTH);
+        }
+    }
+
+    private byte[] deflate(byte[] payload) {
+        final Deflater deflater = deflaters.get();
+        try {
+            deflater.setDictionary(DEFLATE_DICTIONARY);
+            deflater.setInput(payload);
+            deflater.finish();
+
+            // not worth compressing if it doesn't fit in this, happens for tiny payloads
+            final byte[] out = new byte[HEADER_LENGTH + payload.length];
+            final int compressedLength = deflater.deflate(out, HEADER_LENGTH, payload.length);
+            if (!deflater.finished()) {
+                return payload;
+            }
+
+            final ByteBuffer header = ByteBuffer.wrap(out, 0, HEADER_LENGTH);
+            header.put(MAGIC);
+            header.put(VERSION);
+            header.put((byte) CacheCompression.DEFLATE.getId());
+            header.putInt(payload.length);
+            return Arrays.copyOf(out, HEADER_LENGTH + compressedLength);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private byte[] inflate(byte[] stored, int offset, int length, int uncompressedLength) throws IOException {
+        final Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(stored, offset, length);
+            final byte[] out = new byte[uncompressedLength];
+            int n = inflater.inflate(out);
+            if (n == 0 && inflater.needsDictionary()) {
+                inflater.setDictionary(DEFLATE_DICTIONARY);
+                n = inflater.inflate(out);
+            }
+            if (n != uncompressedLength || !inflater.finished()) {
+                throw new IOException("cache entry inflated to " + n + " bytes, expected " + uncompressedLength);
+            }
+            return out;
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new IOException("corrupted compressed cache entry", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>(METRIC_PREFIX + "rawBytes", rawBytes.get()),
+                new Metric<>(METRIC_PREFIX + "encodedBytes", encodedBytes.get()));
+    }
+}
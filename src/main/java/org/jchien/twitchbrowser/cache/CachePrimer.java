@@ -1,52 +1,80 @@
 package org.jchien.twitchbrowser.cache;
 
+import com.google.common.base.CaseFormat;
+import com.lambdaworks.redis.RedisException;
 import org.jchien.twitchbrowser.PopularGamesRequest;
 import org.jchien.twitchbrowser.PopularGamesResponse;
 import org.jchien.twitchbrowser.StreamsRequest;
-import org.jchien.twitchbrowser.StreamsResponse;
 import org.jchien.twitchbrowser.twitch.CachingTwitchApiService;
-import org.jchien.twitchbrowser.twitch.TwitchApiService;
 import org.jchien.twitchbrowser.twitch.TwitchGame;
-import org.jchien.twitchbrowser.util.LoggingThreadFactory;
+import org.jchien.twitchbrowser.util.AsyncLimiter;
+import org.jchien.twitchbrowser.util.CompletableFutures;
+import org.jchien.twitchbrowser.util.LatencyHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Keeps the pages people actually ask for from going stale. Every run looks at the most requested pages according to
+ * {@link PopularityTracker}, plus the first page of each of the most popular games so a fresh instance has something
+ * warm before any traffic shows up. Pages due to go stale soon are refreshed most requested first, up to
+ * MAX_REFRESHES_PER_RUN of them, anything past that waits for the next run.
+ *
  * @author jchien
  */
 @Component
-public class CachePrimer {
+public class CachePrimer implements PublicMetrics {
     private static final Logger LOG = LoggerFactory.getLogger(CachePrimer.class);
 
-    private static final int GAME_LIMIT = 50; // num games to try priming
+    private static final int GAME_LIMIT = 50; // num games to prime the first page of regardless of traffic
 
+    private static final int TRACKED_KEY_LIMIT = 200; // num most requested pages to consider each run
+
+    private static final int MAX_REFRESHES_PER_RUN = 16; // upstream budget for each run
+
+    private static final int MAX_CONCURRENT_REFRESHES = 8;
+
+    // refresh pages this long before they go stale, has to be longer than DELAY_MILLIS or pages go stale between runs
     private static final long EXPIRING_SOON_MILLIS = TimeUnit.SECONDS.toMillis(30); // naming is hard
 
     private static final long DELAY_MILLIS = 5000; // time between batched prime runs
 
-    private TwitchApiService service;
+    private CachingTwitchApiService service;
+
+    private final PopularityTracker popularityTracker;
 
-    private static final int NUM_THREADS = 8;
+    // pages that came out each way across every run, filled in up front so it's never modified after
+    private final Map<PrimeResult, AtomicLong> resultCounts = new EnumMap<>(PrimeResult.class);
 
-    private ExecutorService executors = Executors.newFixedThreadPool(NUM_THREADS, new LoggingThreadFactory("CachePrimerThread"));
+    // whole run including the refreshes, runs that failed early included
+    private final LatencyHistogram runLatency = new LatencyHistogram();
 
     @Autowired
-    public CachePrimer(@Qualifier("cachingTwitchApiService") TwitchApiService service) {
+    public CachePrimer(@Qualifier("cachingTwitchApiService") CachingTwitchApiService service,
+                       PopularityTracker popularityTracker) {
         this.service = service;
+        this.popularityTracker = popularityTracker;
+        for (PrimeResult result : PrimeResult.values()) {
+            resultCounts.put(result, new AtomicLong());
+        }
     }
 
     @Scheduled(fixedDelay = DELAY_MILLIS)
@@ -54,83 +82,148 @@ public class CachePrimer {
         PopularGamesRequest request = PopularGamesRequest.newBuilder()
                 .setLimit(GAME_LIMIT)
                 .build();
+        final long start = System.nanoTime();
         try {
-            PopularGamesResponse response = service.getPopularGames(request);
-            List<TwitchGame> games = response.getGamesList();
-            List<Future<PrimeResult>> results = new ArrayList<>(GAME_LIMIT);
+            // most requested first, popular games nobody has asked for yet go last with a score of 0
+            Map<String, Candidate> candidates = new LinkedHashMap<>();
+            for (PopularityTracker.TrackedKey key : popularityTracker.getTopKeys(TRACKED_KEY_LIMIT)) {
+                candidates.put(key.getCacheKey(), new Candidate(key.getPage(), key.getScore(), candidates.size()));
+            }
+            try {
+                PopularGamesResponse response = service.getPopularGames(request);
+                for (TwitchGame game : response.getGamesList()) {
+                    StreamsRequest page = buildRequest(game.getGameName());
+                    candidates.putIfAbsent(service.getCacheKey(page), new Candidate(page, 0, candidates.size()));
+                }
+            } catch (IOException e) {
+                // the pages people are asking for can still be primed
+                LOG.warn("failed to get popular games to prime", e);
+            }
+            if (candidates.isEmpty()) {
+                return;
+            }
 
-            for (TwitchGame game : games) {
-                Future<PrimeResult> future = executors.submit(new PrimeTask(game.getGameName()));
-                results.add(future);
+            List<StreamsRequest> streamsRequests = new ArrayList<>(candidates.size());
+            for (Candidate candidate : candidates.values()) {
+                streamsRequests.add(candidate.request);
             }
 
-            for (Future<PrimeResult> future : results) {
-                try {
-                    // todo track stats based on result
-                    future.get();
-                } catch (InterruptedException | ExecutionException e) {
-                    LOG.warn("problem priming cache for single game", e);
+            // one round trip to find out what needs refreshing instead of a lookup per page, and only the
+            // timestamps so we aren't downloading every page's streams to look at them
+            List<Long> cacheTimestamps = CompletableFutures.getOrThrow(service.getCacheTimestamps(streamsRequests));
+
+            Map<PrimeResult, Integer> counts = new EnumMap<>(PrimeResult.class);
+            PriorityQueue<Candidate> due = new PriorityQueue<>(
+                    Comparator.comparingDouble((Candidate c) -> -c.score).thenComparingInt(c -> c.rank));
+            long now = System.currentTimeMillis();
+            int i = 0;
+            for (Candidate candidate : candidates.values()) {
+                candidate.cacheState = getCacheState(cacheTimestamps.get(i++), now);
+                if (candidate.cacheState == PrimeResult.HIT) {
+                    counts.merge(PrimeResult.HIT, 1, Integer::sum);
+                } else {
+                    due.add(candidate);
                 }
             }
+
+            AsyncLimiter limiter = new AsyncLimiter(MAX_CONCURRENT_REFRESHES);
+            List<CompletableFuture<PrimeResult>> results = new ArrayList<>(MAX_REFRESHES_PER_RUN);
+            while (!due.isEmpty() && results.size() < MAX_REFRESHES_PER_RUN) {
+                results.add(prime(limiter, due.poll()));
+            }
+            if (!due.isEmpty()) {
+                counts.merge(PrimeResult.DEFERRED, due.size(), Integer::sum);
+            }
+
+            for (CompletableFuture<PrimeResult> result : results) {
+                counts.merge(result.join(), 1, Integer::sum);
+            }
+
+            for (Map.Entry<PrimeResult, Integer> count : counts.entrySet()) {
+                resultCounts.get(count.getKey()).addAndGet(count.getValue());
+            }
+            LOG.debug("primed cache for " + candidates.size() + " pages: " + counts);
         } catch (IOException e) {
-            LOG.warn("failed to get popular games", e);
+            LOG.warn("failed to prime cache", e);
+        } catch (RedisException e) {
+            // be less verbose if it's a connection problem
+            LOG.warn("unable to check cache, skipping prime: " + e.getMessage());
+        } finally {
+            runLatency.recordSince(start);
         }
     }
 
+    private CompletableFuture<PrimeResult> prime(AsyncLimiter limiter, Candidate candidate) {
+        return limiter.submit(() -> service.refresh(candidate.request))
+                .handle((response, t) -> {
+                    if (t != null) {
+                        LOG.warn("failed to prime cache for " + candidate.request.getGameName()
+                                + " start=" + candidate.request.getStart(), CompletableFutures.unwrap(t));
+                        return PrimeResult.FAIL;
+                    }
+                    // assume no exception thrown means successful call
+                    return candidate.cacheState;
+                });
+    }
+
+    private static StreamsRequest buildRequest(String gameName) {
+        return StreamsRequest.newBuilder()
+                .setGameName(gameName)
+                .setStart(0)
+                .setLimit(CachingTwitchApiService.GAME_STREAM_LIMIT)
+                .build();
+    }
+
+    private static PrimeResult getCacheState(Long cacheTimestamp, long now) {
+        if (cacheTimestamp == null) {
+            return PrimeResult.MISS;
+        }
+        if (isExpiringSoon(cacheTimestamp, now)) {
+            return PrimeResult.EXPIRING_SOON;
+        }
+        // clean cache hit
+        return PrimeResult.HIT;
+    }
+
+    private static boolean isExpiringSoon(long responseTimestamp, long now) {
+        long staleTime = responseTimestamp + CachingTwitchApiService.STALE_MS;
+        long expiringSoonTime = staleTime - EXPIRING_SOON_MILLIS;
+        return now >= expiringSoonTime;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>(runLatency.metrics("twibro.primer.run"));
+        for (Map.Entry<PrimeResult, AtomicLong> count : resultCounts.entrySet()) {
+            final String name = CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, count.getKey().name());
+            metrics.add(new Metric<>("twibro.primer.pages." + name, count.getValue().get()));
+        }
+        return metrics;
+    }
+
     private enum PrimeResult {
         HIT,
         EXPIRING_SOON,
         MISS,
         FAIL,
+        // due, but over budget for this run
+        DEFERRED,
     }
 
-    private class PrimeTask implements Callable<PrimeResult> {
-        private final String gameName;
-
-        public PrimeTask(String gameName) {
-            this.gameName = gameName;
-        }
-
-        @Override
-        public PrimeResult call() throws Exception {
-            try {
-                StreamsResponse response = service.getStreams(buildRequest(false));
-                if (!response.getFromCache()) {
-                    // we got fresh results so it wasn't in cache or was too old
-                    return PrimeResult.MISS;
-                }
-
-                long responseTimestamp = response.getTimestamp();
-                if (isExpiringSoon(responseTimestamp)) {
-                    service.getStreams(buildRequest(true));
-                    // assume no exception thrown means successful call
-                    return PrimeResult.EXPIRING_SOON;
-                }
+    private static class Candidate {
+        private final StreamsRequest request;
 
-                // clean cache hit
-                return PrimeResult.HIT;
+        private final double score;
 
-            } catch (IOException e) {
-                LOG.warn("failed to prime cache for " + gameName, e);
-                return PrimeResult.FAIL;
-            }
-        }
+        // popular games keep their order when nobody's asked for them
+        private final int rank;
 
-        private StreamsRequest buildRequest(boolean disallowCache) {
-            return StreamsRequest.newBuilder()
-                    .setGameName(gameName)
-                    .setStart(0)
-                    .setLimit(CachingTwitchApiService.GAME_STREAM_LIMIT)
-                    .setDisallowCache(disallowCache)
-                    .build();
-        }
+        private PrimeResult cacheState;
 
-        private boolean isExpiringSoon(long responseTimestamp) {
-            long now = System.currentTimeMillis();
-            long staleTime = responseTimestamp + CachingTwitchApiService.STALE_MS;
-            long expiringSoonTime = staleTime - EXPIRING_SOON_MILLIS;
-            return now >= expiringSoonTime;
+        Candidate(StreamsRequest request, double score, int rank) {
+            this.request = request;
+            this.score = score;
+            this.rank = rank;
         }
     }
 }
-
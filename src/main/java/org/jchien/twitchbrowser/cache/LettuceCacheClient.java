@@ -0,0 +1,294 @@
+package org.jchien.twitchbrowser.cache;
+
+import com.lambdaworks.redis.AbstractRedisClient;
+import com.lambdaworks.redis.ClientOptions;
+import com.lambdaworks.redis.ReadFrom;
+import com.lambdaworks.redis.RedisClient;
+import com.lambdaworks.redis.RedisConnectionException;
+import com.lambdaworks.redis.RedisException;
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.RedisURI;
+import com.lambdaworks.redis.api.StatefulConnection;
+import com.lambdaworks.redis.api.StatefulRedisConnection;
+import com.lambdaworks.redis.cluster.ClusterClientOptions;
+import com.lambdaworks.redis.cluster.ClusterTopologyRefreshOptions;
+import com.lambdaworks.redis.cluster.RedisClusterClient;
+import com.lambdaworks.redis.cluster.api.StatefulRedisClusterConnection;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import com.lambdaworks.redis.masterslave.MasterSlave;
+import com.lambdaworks.redis.masterslave.StatefulRedisMasterSlaveConnection;
+import org.jchien.twitchbrowser.util.LoggingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Requests are striped across a few connections by key, so one big reply or a reconnect doesn't hold up everything
+ * else pipelined behind it. The primer and health check get connections of their own.
+ *
+ * Lettuce reconnects established connections by itself, commands sent while it's at it fail right away instead of
+ * queueing up. Connections that couldn't be established in the first place are retried in the background, nobody
+ * waits on a connect.
+ *
+ * Each of those connections can be to a single node, a master with replicas, or a cluster, see {@link RedisTopology}.
+ * Reads on the serving and primer connections go wherever readFrom says, the health check always uses the master
+ * since it reads back what it just wrote.
+ *
+ * @author jchien
+ */
+@Component
+public class LettuceCacheClient implements CacheClient, PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LettuceCacheClient.class);
+
+    private static final String METRIC_PREFIX = "twibro.redis.";
+
+    private static final long CONNECT_RETRY_MILLIS = 5000;
+
+    private static final long TOPOLOGY_REFRESH_SECONDS = 60;
+
+    private final RedisTopology topology;
+
+    private final List<RedisURI> redisUris;
+
+    private final ReadFrom readFrom;
+
+    // RedisClusterClient for CLUSTER, RedisClient otherwise
+    private final AbstractRedisClient redisClient;
+
+    private final List<TrackedRedisConnection> servingConnections;
+
+    private final TrackedRedisConnection primerConnection = new TrackedRedisConnection("primer");
+
+    private final TrackedRedisConnection healthConnection = new TrackedRedisConnection("health");
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    private final ScheduledExecutorService connectExecutor = Executors.newSingleThreadScheduledExecutor(new LoggingThreadFactory("RedisConnectThread"));
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param redisUri comma separated if there's more than one node, for CLUSTER these are just the seed nodes
+     * @param readFrom one of lettuce's {@link ReadFrom} names, like master, slave or nearest
+     */
+    @Autowired
+    public LettuceCacheClient(@Qualifier("redisUri") String redisUri,
+                              @Qualifier("redisConnections") int numConnections,
+                              @Qualifier("redisTopology") RedisTopology topology,
+                              @Qualifier("redisReadFrom") String readFrom) {
+        this.topology = topology;
+        this.readFrom = ReadFrom.valueOf(readFrom);
+
+        final List<RedisURI> uris = new ArrayList<>();
+        for (String uri : redisUri.split(",")) {
+            uris.add(RedisURI.create(uri.trim()));
+        }
+        this.redisUris = Collections.unmodifiableList(uris);
+
+        if (topology == RedisTopology.CLUSTER) {
+            final RedisClusterClient clusterClient = RedisClusterClient.create(redisUris);
+            clusterClient.setOptions(ClusterClientOptions.builder()
+                    .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+                    // pick up failovers and resharding without waiting for a MOVED to tell us
+                    .topologyRefreshOptions(ClusterTopologyRefreshOptions.builder()
+                            .enablePeriodicRefresh(TOPOLOGY_REFRESH_SECONDS, TimeUnit.SECONDS)
+                            .enableAllAdaptiveRefreshTriggers()
+                            .build())
+                    .build());
+            this.redisClient = clusterClient;
+        } else {
+            final RedisClient client = RedisClient.create();
+            client.setOptions(ClientOptions.builder()
+                    .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+                    .build());
+            this.redisClient = client;
+        }
+
+        final List<TrackedRedisConnection> connections = new ArrayList<>(numConnections);
+        for (int i = 0; i < numConnections; i++) {
+            connections.add(new TrackedRedisConnection("serving" + i));
+        }
+        this.servingConnections = connections;
+
+        // serving connections up front like before, unless redis looks to be down already
+        boolean connected = true;
+        for (TrackedRedisConnection conn : servingConnections) {
+            if (connected) {
+                connected = connect(conn);
+            } else {
+                connectExecutor.execute(() -> connect(conn));
+            }
+        }
+        connectExecutor.execute(() -> connect(primerConnection));
+        connectExecutor.execute(() -> connect(healthConnection));
+    }
+
+    private boolean connect(TrackedRedisConnection conn) {
+        if (closed) {
+            return false;
+        }
+
+        try {
+            final StatefulConnection<String, byte[]> redisConnection = open(conn, conn == healthConnection ? ReadFrom.MASTER : readFrom);
+            if (closed) {
+                redisConnection.close();
+            }
+            return true;
+        } catch (RedisException e) {
+            conn.recordConnectFailure();
+            LOG.warn("unable to establish redis connection " + conn.getName() + ", retrying in " + CONNECT_RETRY_MILLIS + " ms: " + e.getMessage());
+            connectExecutor.schedule(() -> connect(conn), CONNECT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            return false;
+        }
+    }
+
+    private StatefulConnection<String, byte[]> open(TrackedRedisConnection conn, ReadFrom connReadFrom) {
+        switch (topology) {
+            case CLUSTER: {
+                final StatefulRedisClusterConnection<String, byte[]> clusterConnection =
+                        ((RedisClusterClient) redisClient).connect(StringByteArrayCodec.INSTANCE);
+                clusterConnection.setReadFrom(connReadFrom);
+                conn.setConnection(clusterConnection, clusterConnection.async());
+                return clusterConnection;
+            }
+            case MASTER_REPLICA: {
+                final StatefulRedisMasterSlaveConnection<String, byte[]> masterSlaveConnection =
+                        MasterSlave.connect((RedisClient) redisClient, StringByteArrayCodec.INSTANCE, redisUris);
+                masterSlaveConnection.setReadFrom(connReadFrom);
+                conn.setConnection(masterSlaveConnection, masterSlaveConnection.async());
+                return masterSlaveConnection;
+            }
+            default: {
+                final StatefulRedisConnection<String, byte[]> redisConnection =
+                        ((RedisClient) redisClient).connect(StringByteArrayCodec.INSTANCE, redisUris.get(0));
+                conn.setConnection(redisConnection, redisConnection.async());
+                return redisConnection;
+            }
+        }
+    }
+
+    /**
+     * @return commands on the connection for this key, or another open one if that one's down
+     */
+    @Override
+    public RedisClusterAsyncCommands<String, byte[]> getAsyncCommands(String key) {
+        return getAsyncCommands(Math.floorMod(key.hashCode(), servingConnections.size()));
+    }
+
+    @Override
+    public RedisClusterAsyncCommands<String, byte[]> getAsyncCommands() {
+        return getAsyncCommands(Math.floorMod(nextConnection.getAndIncrement(), servingConnections.size()));
+    }
+
+    @Override
+    public RedisClusterAsyncCommands<String, byte[]> getPrimerAsyncCommands() {
+        return getCommands(primerConnection);
+    }
+
+    @Override
+    public RedisClusterAsyncCommands<String, byte[]> getHealthAsyncCommands() {
+        return getCommands(healthConnection);
+    }
+
+    private RedisClusterAsyncCommands<String, byte[]> getAsyncCommands(int index) {
+        final int n = servingConnections.size();
+        for (int i = 0; i < n; i++) {
+            final TrackedRedisConnection conn = servingConnections.get((index + i) % n);
+            if (conn.isOpen()) {
+                return conn.getCommands();
+            }
+        }
+        // nothing's up, let the preferred connection reject it
+        return getCommands(servingConnections.get(index));
+    }
+
+    private RedisClusterAsyncCommands<String, byte[]> getCommands(TrackedRedisConnection conn) {
+        final RedisClusterAsyncCommands<String, byte[]> commands = conn.getCommands();
+        if (commands == null) {
+            throw new RedisConnectionException("redis connection " + conn.getName() + " unavailable");
+        }
+        return commands;
+    }
+
+    @Override
+    public void track(RedisClusterAsyncCommands<String, byte[]> commands, RedisFuture<?> command, long startNanos) {
+        // only a handful of connections, a scan is cheaper than a map
+        for (TrackedRedisConnection conn : servingConnections) {
+            if (conn.getCommands() == commands) {
+                conn.track(command, startNanos);
+                return;
+            }
+        }
+        if (primerConnection.getCommands() == commands) {
+            primerConnection.track(command, startNanos);
+        } else if (healthConnection.getCommands() == commands) {
+            healthConnection.track(command, startNanos);
+        }
+    }
+
+    @Override
+    public int getOpenServingConnectionCount() {
+        int open = 0;
+        for (TrackedRedisConnection conn : servingConnections) {
+            if (conn.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    @Override
+    public int getServingConnectionCount() {
+        return servingConnections.size();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        for (TrackedRedisConnection conn : servingConnections) {
+            metrics.addAll(conn.metrics(METRIC_PREFIX));
+        }
+        metrics.addAll(primerConnection.metrics(METRIC_PREFIX));
+        metrics.addAll(healthConnection.metrics(METRIC_PREFIX));
+        return metrics;
+    }
+
+    @Override
+    @PreDestroy
+    public void close() throws IOException {
+        LOG.info("shutting down redis connections and client");
+
+        // seems like log4j2 is getting shutdown before this log message happens so we'll print to stdout too
+        System.out.println("LettuceCacheClient: shutting down");
+
+        closed = true;
+        connectExecutor.shutdownNow();
+
+        final List<TrackedRedisConnection> all = new ArrayList<>(servingConnections);
+        all.add(primerConnection);
+        all.add(healthConnection);
+        for (TrackedRedisConnection conn : all) {
+            final StatefulConnection<String, byte[]> redisConnection = conn.getConnection();
+            if (redisConnection != null) {
+                redisConnection.close();
+            }
+        }
+        redisClient.shutdown();
+    }
+}
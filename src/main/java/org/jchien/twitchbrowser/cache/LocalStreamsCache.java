@@ -0,0 +1,104 @@
+package org.jchien.twitchbrowser.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of already parsed StreamsResponses, sitting in front of redis so hot keys don't need a round trip
+ * or a parse. Bounded by the approximate serialized size of its entries rather than by entry count since pages vary
+ * a lot in size.
+ *
+ * Entries are also dropped ttlMillis after being written, but callers should still check the response timestamp since
+ * an entry may have already been old when it was copied out of redis.
+ *
+ * @author jchien
+ */
+public class LocalStreamsCache implements PublicMetrics {
+    private static final String METRIC_PREFIX = "twibro.localcache.";
+
+    private final Cache<String, StreamsResponse> cache;
+
+    private final AtomicLong weightBytes = new AtomicLong();
+
+    private final AtomicLong sizeEvictions = new AtomicLong();
+
+    private final AtomicLong expiredEvictions = new AtomicLong();
+
+    public LocalStreamsCache(boolean enabled, long maxWeightBytes, long ttlMillis) {
+        if (!enabled) {
+            this.cache = null;
+            return;
+        }
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String key, StreamsResponse response) -> weigh(key, response))
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .removalListener(notification -> {
+                    weightBytes.addAndGet(-weigh(notification.getKey(), notification.getValue()));
+                    if (notification.getCause() == RemovalCause.SIZE) {
+                        sizeEvictions.incrementAndGet();
+                    } else if (notification.getCause() == RemovalCause.EXPIRED) {
+                        expiredEvictions.incrementAndGet();
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    private static int weigh(String key, StreamsResponse response) {
+        // serialized size is memoized by protobuf, it's a decent enough approximation of the heap used
+        return 2 * key.length() + response.getSerializedSize();
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    @Nullable
+    public StreamsResponse get(String cacheKey) {
+        if (cache == null) {
+            return null;
+        }
+        return cache.getIfPresent(cacheKey);
+    }
+
+    public void put(String cacheKey, StreamsResponse response) {
+        if (cache == null) {
+            return;
+        }
+        weightBytes.addAndGet(weigh(cacheKey, response));
+        cache.put(cacheKey, response);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        if (cache == null) {
+            return Collections.emptyList();
+        }
+
+        final CacheStats stats = cache.stats();
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>(METRIC_PREFIX + "hits", stats.hitCount()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "misses", stats.missCount()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "hitRatio", stats.hitRate()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "evictions.size", sizeEvictions.get()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "evictions.expired", expiredEvictions.get()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "entries", cache.size()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "bytes", weightBytes.get()));
+        return metrics;
+    }
+}
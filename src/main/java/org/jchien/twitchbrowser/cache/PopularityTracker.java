@@ -0,0 +1,140 @@
+package org.jchien.twitchbrowser.cache;
+
+import org.jchien.twitchbrowser.StreamsRequest;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often each cached page is asked for, so {@link CachePrimer} knows which ones are worth keeping warm.
+ * Counts decay with a half life of HALF_LIFE_MILLIS, so a game that was popular an hour ago doesn't keep getting
+ * primed after everyone's moved on.
+ *
+ * Recording a request is just an increment, the decaying happens when the primer asks for the top keys.
+ *
+ * @author jchien
+ */
+@Component
+public class PopularityTracker implements PublicMetrics {
+    private static final String METRIC_PREFIX = "twibro.popularity.";
+
+    private static final long HALF_LIFE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // new keys past this many aren't tracked until old ones decay away
+    private static final int MAX_TRACKED_KEYS = 5000;
+
+    // keys are forgotten once their score decays below this, about an hour after the last request for one
+    private static final double MIN_SCORE = 1.0 / 64;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong untrackedCount = new AtomicLong();
+
+    // guarded by this
+    private long lastDecayMillis = System.currentTimeMillis();
+
+    /**
+     * @param page a request for a whole cached page, as given to CachingTwitchApiService.refresh
+     */
+    public void record(String cacheKey, StreamsRequest page) {
+        Entry entry = entries.get(cacheKey);
+        if (entry == null) {
+            if (entries.size() >= MAX_TRACKED_KEYS) {
+                untrackedCount.incrementAndGet();
+                return;
+            }
+            entry = entries.computeIfAbsent(cacheKey, k -> new Entry(cacheKey, page));
+        }
+        entry.hits.increment();
+    }
+
+    /**
+     * @return the most requested keys, most requested first
+     */
+    public synchronized List<TrackedKey> getTopKeys(int limit) {
+        final long now = System.currentTimeMillis();
+        final double decay = Math.pow(0.5, (double) (now - lastDecayMillis) / HALF_LIFE_MILLIS);
+        lastDecayMillis = now;
+
+        final List<TrackedKey> keys = new ArrayList<>(entries.size());
+        final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next().getValue();
+            entry.score = entry.score * decay + entry.hits.sumThenReset();
+            if (entry.score < MIN_SCORE) {
+                // a hit recorded between the sum and here is lost, no big deal
+                it.remove();
+            } else {
+                keys.add(new TrackedKey(entry.cacheKey, entry.page, entry.score));
+            }
+        }
+
+        keys.sort(Comparator.comparingDouble(TrackedKey::getScore).reversed());
+        return keys.size() > limit ? new ArrayList<>(keys.subList(0, limit)) : keys;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>(METRIC_PREFIX + "keys", entries.size()),
+                new Metric<>(METRIC_PREFIX + "untracked", untrackedCount.get()));
+    }
+
+    private static class Entry {
+        private final String cacheKey;
+
+        private final StreamsRequest page;
+
+        private final LongAdder hits = new LongAdder();
+
+        // only touched by getTopKeys
+        private double score;
+
+        Entry(String cacheKey, StreamsRequest page) {
+            this.cacheKey = cacheKey;
+            this.page = page;
+        }
+    }
+
+    public static class TrackedKey {
+        private final String cacheKey;
+
+        private final StreamsRequest page;
+
+        private final double score;
+
+        TrackedKey(String cacheKey, StreamsRequest page, double score) {
+            this.cacheKey = cacheKey;
+            this.page = page;
+            this.score = score;
+        }
+
+        public String getCacheKey() {
+            return cacheKey;
+        }
+
+        public StreamsRequest getPage() {
+            return page;
+        }
+
+        /**
+         * @return requests for this key, decayed by how long ago they were made
+         */
+        public double getScore() {
+            return score;
+        }
+    }
+}
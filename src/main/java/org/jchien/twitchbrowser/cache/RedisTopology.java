@@ -0,0 +1,15 @@
+package org.jchien.twitchbrowser.cache;
+
+/**
+ * How the redis nodes in twibro.redisUri are set up, see {@link LettuceCacheClient}.
+ *
+ * @author jchien
+ */
+public enum RedisTopology {
+    /** a single node */
+    STANDALONE,
+    /** a master and its replicas, writes go to the master and reads go wherever twibro.redisReadFrom says */
+    MASTER_REPLICA,
+    /** redis cluster, the uris are seed nodes and commands are routed by key slot */
+    CLUSTER,
+}
@@ -3,15 +3,28 @@ package org.jchien.twitchbrowser.cache;
 import com.lambdaworks.redis.codec.ByteArrayCodec;
 import com.lambdaworks.redis.codec.RedisCodec;
 import com.lambdaworks.redis.codec.StringCodec;
+import com.lambdaworks.redis.codec.ToByteBufEncoder;
+import io.netty.buffer.ByteBuf;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Keys are written straight into netty's buffer from cached UTF-8 bytes, since the same few hundred keys get used
+ * over and over.
+ *
  * @author jchien
  */
-public class StringByteArrayCodec implements RedisCodec<String, byte[]> {
+public class StringByteArrayCodec implements RedisCodec<String, byte[]>, ToByteBufEncoder<String, byte[]> {
     public static final StringByteArrayCodec INSTANCE = new StringByteArrayCodec();
 
+    // requests can name any game so this can't grow forever, dumping it all now and then is good enough
+    private static final int MAX_CACHED_KEYS = 4096;
+
+    private final ConcurrentMap<String, byte[]> keyBytes = new ConcurrentHashMap<>();
+
     @Override
     public String decodeKey(ByteBuffer bytes) {
         return StringCodec.UTF8.decodeKey(bytes);
@@ -24,11 +37,45 @@ public class StringByteArrayCodec implements RedisCodec<String, byte[]> {
 
     @Override
     public ByteBuffer encodeKey(String key) {
-        return StringCodec.UTF8.encodeKey(key);
+        return ByteBuffer.wrap(getKeyBytes(key));
     }
 
     @Override
     public ByteBuffer encodeValue(byte[] value) {
         return ByteArrayCodec.INSTANCE.encodeValue(value);
     }
+
+    @Override
+    public void encodeKey(String key, ByteBuf target) {
+        target.writeBytes(getKeyBytes(key));
+    }
+
+    @Override
+    public void encodeValue(byte[] value, ByteBuf target) {
+        if (value != null) {
+            target.writeBytes(value);
+        }
+    }
+
+    @Override
+    public int estimateSize(Object keyOrValue) {
+        if (keyOrValue instanceof String) {
+            return getKeyBytes((String) keyOrValue).length;
+        } else if (keyOrValue instanceof byte[]) {
+            return ((byte[]) keyOrValue).length;
+        }
+        return 0;
+    }
+
+    private byte[] getKeyBytes(String key) {
+        byte[] bytes = keyBytes.get(key);
+        if (bytes == null) {
+            bytes = key.getBytes(StandardCharsets.UTF_8);
+            if (keyBytes.size() >= MAX_CACHED_KEYS) {
+                keyBytes.clear();
+            }
+            keyBytes.put(key, bytes);
+        }
+        return bytes;
+    }
 }
@@ -0,0 +1,110 @@
+package org.jchien.twitchbrowser.cache;
+
+import com.lambdaworks.redis.RedisFuture;
+import com.lambdaworks.redis.api.StatefulConnection;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One of {@link LettuceCacheClient}'s connections, along with how many commands it has in flight and how long they take.
+ * The connection may not exist yet if connecting failed, LettuceCacheClient keeps retrying in the background.
+ *
+ * Only commands passed to {@link #track(RedisFuture, long)} are counted.
+ *
+ * @author jchien
+ */
+class TrackedRedisConnection {
+    // weight given to the newest sample in the moving average
+    private static final double LATENCY_ALPHA = 0.05;
+
+    private final String name;
+
+    private volatile StatefulConnection<String, byte[]> connection;
+
+    private volatile RedisClusterAsyncCommands<String, byte[]> commands;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong connectFailures = new AtomicLong();
+
+    // moving average as double bits. a cluster connection completes commands on each node's event loop, so it's
+    // updated with a CAS
+    private final AtomicLong latencyMicrosBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+    TrackedRedisConnection(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @param async the connection's async commands, there's no common way to get them for standalone and cluster
+     *              connections
+     */
+    void setConnection(StatefulConnection<String, byte[]> connection, RedisClusterAsyncCommands<String, byte[]> async) {
+        this.commands = async;
+        this.connection = connection;
+    }
+
+    /**
+     * @param command just sent on this connection
+     * @param startNanos when it was sent
+     */
+    void track(RedisFuture<?> command, long startNanos) {
+        inFlight.incrementAndGet();
+        command.whenComplete((value, t) -> recordCompletion(startNanos));
+    }
+
+    private void recordCompletion(long startNanos) {
+        inFlight.decrementAndGet();
+        completed.incrementAndGet();
+        final double micros = (System.nanoTime() - startNanos) / 1000.0;
+        long prev;
+        long next;
+        do {
+            prev = latencyMicrosBits.get();
+            final double latencyMicros = Double.longBitsToDouble(prev);
+            next = Double.doubleToRawLongBits(latencyMicros == 0 ? micros : latencyMicros + LATENCY_ALPHA * (micros - latencyMicros));
+        } while (!latencyMicrosBits.compareAndSet(prev, next));
+    }
+
+    void recordConnectFailure() {
+        connectFailures.incrementAndGet();
+    }
+
+    StatefulConnection<String, byte[]> getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return null if there's no connection yet, commands sent with these aren't counted unless they're passed to
+     *         {@link #track(RedisFuture, long)}
+     */
+    RedisClusterAsyncCommands<String, byte[]> getCommands() {
+        return commands;
+    }
+
+    boolean isOpen() {
+        final StatefulConnection<String, byte[]> conn = connection;
+        return conn != null && conn.isOpen();
+    }
+
+    Collection<Metric<?>> metrics(String prefix) {
+        final String p = prefix + name + ".";
+        return Arrays.asList(
+                new Metric<>(p + "open", isOpen() ? 1 : 0),
+                new Metric<>(p + "inflight", inFlight.get()),
+                new Metric<>(p + "commands", completed.get()),
+                new Metric<>(p + "latencyMicros", Math.round(Double.longBitsToDouble(latencyMicrosBits.get()))),
+                new Metric<>(p + "connectFailures", connectFailures.get()));
+    }
+}
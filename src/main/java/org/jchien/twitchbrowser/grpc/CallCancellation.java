@@ -0,0 +1,28 @@
+package org.jchien.twitchbrowser.grpc;
+
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * For failing work that was cut short because the grpc call it was for is over.
+ *
+ * @author jchien
+ */
+public class CallCancellation {
+    /**
+     * @param context a cancelled grpc call context
+     * @return DEADLINE_EXCEEDED if that's why it was cancelled, CANCELLED otherwise
+     */
+    public static StatusRuntimeException toException(Context context, String description) {
+        // the deadline passing cancels the context with a TimeoutException
+        final Status status = context.cancellationCause() instanceof TimeoutException
+                ? Status.DEADLINE_EXCEEDED
+                : Status.CANCELLED;
+        return status.withDescription(description)
+                .withCause(context.cancellationCause())
+                .asRuntimeException();
+    }
+}
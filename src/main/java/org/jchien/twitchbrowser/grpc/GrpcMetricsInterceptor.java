@@ -0,0 +1,203 @@
+package org.jchien.twitchbrowser.grpc;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import org.jchien.twitchbrowser.util.LatencyHistogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per method call counts, status codes, calls in flight and message sizes, plus latency for unary calls from the
+ * server picking them up until they're closed or cancelled. Streaming calls last as long as the client wants, so
+ * they aren't timed. Installed outside every other interceptor so calls they reject are counted too.
+ *
+ * Unary calls slower than grpcSlowCallMillis go in a {@link SlowCallLog} along with their requests.
+ *
+ * @author jchien
+ */
+@Component
+public class GrpcMetricsInterceptor implements ServerInterceptor, PublicMetrics {
+    private static final String METRIC_PREFIX = "twibro.grpc.";
+
+    private static final Status.Code[] STATUS_CODES = Status.Code.values();
+
+    // by bare method name, e.g. getStreams
+    private final Map<String, MethodStats> methodStats = new ConcurrentHashMap<>();
+
+    private final SlowCallLog slowCallLog;
+
+    @Autowired
+    public GrpcMetricsInterceptor(@Qualifier("grpcSlowCallMillis") long slowCallMillis,
+                                  @Qualifier("grpcSlowCallLogSize") int slowCallLogSize) {
+        this.slowCallLog = new SlowCallLog(TimeUnit.MILLISECONDS.toNanos(slowCallMillis), slowCallLogSize);
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        final String methodName = getMethodName(call.getMethodDescriptor());
+        final MethodStats stats = methodStats.computeIfAbsent(methodName, name -> new MethodStats());
+        final boolean unary = call.getMethodDescriptor().getType() == MethodDescriptor.MethodType.UNARY;
+
+        stats.calls.incrementAndGet();
+        stats.inFlight.incrementAndGet();
+        final CallState state = new CallState(System.nanoTime());
+
+        final ServerCall<ReqT, RespT> countedCall = new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                // memoized, the marshaller doesn't have to work it out again
+                stats.responses.record(message);
+                super.sendMessage(message);
+            }
+
+            @Override
+            public void close(Status status, Metadata trailers) {
+                finish(methodName, stats, state, status.getCode(), unary);
+                super.close(status, trailers);
+            }
+        };
+
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(next.startCall(countedCall, headers)) {
+            @Override
+            public void onMessage(ReqT message) {
+                stats.requests.record(message);
+                state.request = message;
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onCancel() {
+                // the client went away or its deadline passed, whatever the call closes with afterwards won't be sent
+                finish(methodName, stats, state, Status.Code.CANCELLED, unary);
+                super.onCancel();
+            }
+        };
+    }
+
+    private void finish(String methodName, MethodStats stats, CallState state, Status.Code code, boolean unary) {
+        // a cancelled call may still be closed afterwards, it only counts once
+        if (!state.done.compareAndSet(false, true)) {
+            return;
+        }
+        final long elapsed = System.nanoTime() - state.startNanos;
+        stats.inFlight.decrementAndGet();
+        stats.statusCounts.incrementAndGet(code.ordinal());
+        if (unary) {
+            stats.latency.record(elapsed);
+            slowCallLog.record(methodName, elapsed, code, state.request);
+        }
+    }
+
+    private static String getMethodName(MethodDescriptor<?, ?> method) {
+        final String fullName = method.getFullMethodName();
+        return fullName.substring(fullName.lastIndexOf('/') + 1);
+    }
+
+    public SlowCallLog getSlowCallLog() {
+        return slowCallLog;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>(METRIC_PREFIX + "slowCalls", slowCallLog.getSlowCallCount()));
+        for (Map.Entry<String, MethodStats> entry : methodStats.entrySet()) {
+            final String prefix = METRIC_PREFIX + entry.getKey() + ".";
+            final MethodStats stats = entry.getValue();
+            metrics.add(new Metric<>(prefix + "calls", stats.calls.get()));
+            metrics.add(new Metric<>(prefix + "inflight", stats.inFlight.get()));
+            for (int i = 0; i < STATUS_CODES.length; i++) {
+                final long count = stats.statusCounts.get(i);
+                if (count > 0) {
+                    metrics.add(new Metric<>(prefix + "status." + STATUS_CODES[i].name(), count));
+                }
+            }
+            stats.requests.addMetrics(metrics, prefix + "requests");
+            stats.responses.addMetrics(metrics, prefix + "responses");
+            if (stats.latency.getCount() > 0) {
+                metrics.addAll(stats.latency.metrics(prefix + "latency"));
+            }
+        }
+        return metrics;
+    }
+
+    private static class CallState {
+        private final long startNanos;
+
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        // for the slow call log, it's a unary call's only request
+        private volatile Object request;
+
+        CallState(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    private static class MethodStats {
+        private final AtomicLong calls = new AtomicLong();
+
+        private final AtomicLong inFlight = new AtomicLong();
+
+        private final AtomicLongArray statusCounts = new AtomicLongArray(STATUS_CODES.length);
+
+        private final MessageSizes requests = new MessageSizes();
+
+        private final MessageSizes responses = new MessageSizes();
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    /**
+     * Serialized size of every message sent one way.
+     */
+    private static class MessageSizes {
+        private final LongAdder messages = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final LongAccumulator maxBytes = new LongAccumulator(Math::max, 0);
+
+        void record(Object message) {
+            if (message instanceof MessageLite) {
+                final int size = ((MessageLite) message).getSerializedSize();
+                messages.increment();
+                bytes.add(size);
+                maxBytes.accumulate(size);
+            }
+        }
+
+        void addMetrics(List<Metric<?>> metrics, String prefix) {
+            final long count = messages.sum();
+            final long total = bytes.sum();
+            metrics.add(new Metric<>(prefix, count));
+            metrics.add(new Metric<>(prefix + ".bytes", total));
+            metrics.add(new Metric<>(prefix + ".meanBytes", count > 0 ? total / count : 0));
+            metrics.add(new Metric<>(prefix + ".maxBytes", maxBytes.get()));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.jchien.twitchbrowser.grpc;
+
+import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptor;
+import org.jchien.twitchbrowser.util.LoggingThreadFactory;
+import org.jchien.twitchbrowser.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the executor the gRPC server runs calls on, and for the bounded pool sheds calls with RESOURCE_EXHAUSTED once
+ * more than maxQueuedCalls tasks are waiting for a thread.
+ *
+ * grpc doesn't handle the executor rejecting work gracefully, so the pool's queue can't be bounded itself. Instead
+ * the server gets the pool wrapped by {@link LoadSheddingInterceptor}, which stops queueing new calls once
+ * maxQueuedCalls tasks are waiting and starts them on the transport thread, where they're rejected without waiting for
+ * the pool. Calls already let in keep going to the pool.
+ *
+ * @author jchien
+ */
+public class GrpcServerExecutor implements PublicMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(GrpcServerExecutor.class);
+
+    private static final String METRIC_PREFIX = "twibro.grpc.executor.";
+
+    private final ServerExecutorType type;
+
+    // null if grpc's default or direct executor is used
+    private final ExecutorService executor;
+
+    // what the server is given, the executor wrapped for load shedding when there is any
+    private final Executor serverExecutor;
+
+    // only set for BOUNDED
+    private final ThreadPoolExecutor pool;
+
+    private final LoadSheddingInterceptor loadSheddingInterceptor;
+
+    public GrpcServerExecutor(ServerExecutorType type, int threads, int maxQueuedCalls) {
+        if (type == ServerExecutorType.VIRTUAL) {
+            ExecutorService virtualExecutor = null;
+            try {
+                virtualExecutor = ReflectionUtils.invokeStaticMethodOrDie(Executors.class, "newVirtualThreadPerTaskExecutor");
+            } catch (RuntimeException e) {
+                LOG.warn("virtual threads unavailable on this JVM, falling back to a bounded pool: " + e.getMessage());
+            }
+
+            if (virtualExecutor != null) {
+                this.type = type;
+                this.executor = virtualExecutor;
+                this.serverExecutor = virtualExecutor;
+                this.pool = null;
+                this.loadSheddingInterceptor = null;
+                return;
+            }
+            type = ServerExecutorType.BOUNDED;
+        }
+
+        this.type = type;
+        if (type == ServerExecutorType.BOUNDED) {
+            this.pool = new ThreadPoolExecutor(threads, threads,
+                    60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new LoggingThreadFactory("GrpcServerThread"));
+            this.executor = pool;
+            this.loadSheddingInterceptor = new LoadSheddingInterceptor(maxQueuedCalls);
+            this.serverExecutor = loadSheddingInterceptor.wrap(pool);
+        } else {
+            this.pool = null;
+            this.executor = null;
+            this.serverExecutor = null;
+            this.loadSheddingInterceptor = null;
+        }
+    }
+
+    public ServerExecutorType getType() {
+        return type;
+    }
+
+    public ServerBuilder<?> configure(ServerBuilder<?> serverBuilder) {
+        switch (type) {
+            case DIRECT:
+                return serverBuilder.directExecutor();
+            case CACHED:
+                return serverBuilder;
+            default:
+                return serverBuilder.executor(serverExecutor);
+        }
+    }
+
+    /**
+     * @return interceptors that need to be installed on the services for this executor to work as intended
+     */
+    public List<ServerInterceptor> getInterceptors() {
+        final List<ServerInterceptor> interceptors = new ArrayList<>(1);
+        if (loadSheddingInterceptor != null) {
+            interceptors.add(loadSheddingInterceptor);
+        }
+        return interceptors;
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        if (pool != null) {
+            metrics.add(new Metric<>(METRIC_PREFIX + "queued", pool.getQueue().size()));
+            metrics.add(new Metric<>(METRIC_PREFIX + "active", pool.getActiveCount()));
+            metrics.add(new Metric<>(METRIC_PREFIX + "threads", pool.getPoolSize()));
+            metrics.add(new Metric<>(METRIC_PREFIX + "completed", pool.getCompletedTaskCount()));
+        }
+        if (loadSheddingInterceptor != null) {
+            metrics.add(new Metric<>(METRIC_PREFIX + "shed", loadSheddingInterceptor.getShedCount()));
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,110 @@
+package org.jchien.twitchbrowser.grpc;
+
+import com.google.common.collect.MapMaker;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rejects calls with RESOURCE_EXHAUSTED while too much work is queued up on the server executor, so a slow upstream
+ * turns into fast failures that clients can back off on instead of ever growing latency.
+ *
+ * grpc starts calls on the server executor, so by the time an interceptor runs the call has already waited in its
+ * queue. Admission happens in the executor returned by {@link #wrap(Executor)} instead: once maxQueued tasks are
+ * waiting it runs call starts inline on the transport thread with a flag set, and this interceptor closes any call
+ * started under that flag before it reaches the service. Everything else for a call that was let in always goes to
+ * the pool, only shedding runs on the transport thread.
+ *
+ * @author jchien
+ */
+public class LoadSheddingInterceptor implements ServerInterceptor {
+    private final int maxQueued;
+
+    // tasks handed to the wrapped executor that haven't started running yet
+    private final AtomicInteger queued = new AtomicInteger();
+
+    // grpc gives each call its own serializing executor and hands that to ours whenever the call has work, so the
+    // first time one shows up is the call starting. true if it was let in, false if it was shed.
+    private final ConcurrentMap<Runnable, Boolean> admitted = new MapMaker().weakKeys().makeMap();
+
+    // set while a call start runs inline because the queue was full
+    private final ThreadLocal<Boolean> overloaded = ThreadLocal.withInitial(() -> false);
+
+    private final AtomicLong shedCount = new AtomicLong();
+
+    public LoadSheddingInterceptor(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * @return executor to give the server, counting tasks queued on the given one and running call starts inline
+     *         once there are too many
+     */
+    public Executor wrap(Executor executor) {
+        return task -> {
+            final Boolean callAdmitted = admitted.get(task);
+            if (callAdmitted == null) {
+                if (queued.incrementAndGet() > maxQueued) {
+                    queued.decrementAndGet();
+                    admitted.put(task, false);
+                    runOverloaded(task);
+                    return;
+                }
+                admitted.put(task, true);
+            } else if (callAdmitted) {
+                queued.incrementAndGet();
+            } else {
+                // shed, whatever's left of the call only reaches the empty listener it was given
+                task.run();
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    queued.decrementAndGet();
+                    task.run();
+                });
+            } catch (RuntimeException e) {
+                queued.decrementAndGet();
+                throw e;
+            }
+        };
+    }
+
+    private void runOverloaded(Runnable task) {
+        final boolean wasOverloaded = overloaded.get();
+        overloaded.set(true);
+        try {
+            task.run();
+        } finally {
+            overloaded.set(wasOverloaded);
+        }
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        if (overloaded.get()) {
+            shedCount.incrementAndGet();
+            call.close(Status.RESOURCE_EXHAUSTED.withDescription("server overloaded, " + queued.get() + " tasks queued"),
+                    new Metadata());
+            return new ServerCall.Listener<ReqT>() {};
+        }
+        return next.startCall(call, headers);
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getShedCount() {
+        return shedCount.get();
+    }
+}
@@ -0,0 +1,17 @@
+package org.jchien.twitchbrowser.grpc;
+
+/**
+ * What the gRPC server runs calls on, see {@link GrpcServerExecutor}.
+ *
+ * @author jchien
+ */
+public enum ServerExecutorType {
+    /** grpc's default, an unbounded cached thread pool */
+    CACHED,
+    /** fixed size pool, calls are shed once too many are waiting for a thread */
+    BOUNDED,
+    /** run calls on the netty event loop, only safe since the service is fully async */
+    DIRECT,
+    /** a new virtual thread per call on JDKs that have them, otherwise falls back to BOUNDED */
+    VIRTUAL,
+}
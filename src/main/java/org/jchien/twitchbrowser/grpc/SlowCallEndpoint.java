@@ -0,0 +1,30 @@
+package org.jchien.twitchbrowser.grpc;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Serves the slow call log at /actuator/slowcalls.
+ *
+ * @author jchien
+ */
+@Component
+@ConfigurationProperties(prefix = "endpoints.slowcalls")
+public class SlowCallEndpoint extends AbstractEndpoint<List<SlowCallLog.SlowCall>> {
+    private final GrpcMetricsInterceptor metricsInterceptor;
+
+    @Autowired
+    public SlowCallEndpoint(GrpcMetricsInterceptor metricsInterceptor) {
+        super("slowcalls");
+        this.metricsInterceptor = metricsInterceptor;
+    }
+
+    @Override
+    public List<SlowCallLog.SlowCall> invoke() {
+        return metricsInterceptor.getSlowCallLog().getSlowCalls();
+    }
+}
@@ -0,0 +1,148 @@
+package org.jchien.twitchbrowser.grpc;
+
+import io.grpc.Status;
+import org.jchien.twitchbrowser.PopularGamesRequest;
+import org.jchien.twitchbrowser.StreamsBatchRequest;
+import org.jchien.twitchbrowser.StreamsRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last few calls that took longer than a threshold, along with what was asked for. Fixed size, each new slow call
+ * overwrites the oldest one.
+ *
+ * @author jchien
+ */
+public class SlowCallLog {
+    // batch calls only keep this many of their requests
+    private static final int MAX_LOGGED_REQUESTS = 10;
+
+    private final long thresholdNanos;
+
+    private final AtomicReferenceArray<SlowCall> calls;
+
+    private final AtomicLong slowCallCount = new AtomicLong();
+
+    public SlowCallLog(long thresholdNanos, int size) {
+        this.thresholdNanos = thresholdNanos;
+        this.calls = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * @param request the call's request message, null if it never got one
+     */
+    void record(String method, long durationNanos, Status.Code status, Object request) {
+        if (durationNanos < thresholdNanos || calls.length() == 0) {
+            return;
+        }
+        final long n = slowCallCount.getAndIncrement();
+        calls.set((int) (n % calls.length()), new SlowCall(method, durationNanos, status, request));
+    }
+
+    public long getSlowCallCount() {
+        return slowCallCount.get();
+    }
+
+    /**
+     * @return slowest first
+     */
+    public List<SlowCall> getSlowCalls() {
+        final List<SlowCall> slowCalls = new ArrayList<>(calls.length());
+        for (int i = 0; i < calls.length(); i++) {
+            final SlowCall call = calls.get(i);
+            if (call != null) {
+                slowCalls.add(call);
+            }
+        }
+        slowCalls.sort(Comparator.comparingLong(SlowCall::getDurationMicros).reversed());
+        return slowCalls;
+    }
+
+    public static class SlowCall {
+        private final String method;
+
+        private final long timestamp;
+
+        private final long durationMicros;
+
+        private final String status;
+
+        private final int requestCount;
+
+        private final List<Map<String, Object>> requests;
+
+        SlowCall(String method, long durationNanos, Status.Code status, Object request) {
+            this.method = method;
+            this.timestamp = System.currentTimeMillis();
+            this.durationMicros = durationNanos / 1000;
+            this.status = status.name();
+
+            final List<StreamsRequest> streamsRequests;
+            if (request instanceof StreamsRequest) {
+                streamsRequests = Collections.singletonList((StreamsRequest) request);
+            } else if (request instanceof StreamsBatchRequest) {
+                streamsRequests = ((StreamsBatchRequest) request).getRequestsList();
+            } else {
+                streamsRequests = Collections.emptyList();
+            }
+
+            this.requestCount = request instanceof PopularGamesRequest ? 1 : streamsRequests.size();
+            this.requests = new ArrayList<>(Math.min(streamsRequests.size(), MAX_LOGGED_REQUESTS));
+            for (StreamsRequest streamsRequest : streamsRequests) {
+                if (requests.size() == MAX_LOGGED_REQUESTS) {
+                    break;
+                }
+                requests.add(toFields(streamsRequest));
+            }
+            if (request instanceof PopularGamesRequest) {
+                requests.add(Collections.singletonMap("limit", ((PopularGamesRequest) request).getLimit()));
+            }
+        }
+
+        private static Map<String, Object> toFields(StreamsRequest request) {
+            final Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("gameName", request.getGameName());
+            fields.put("start", request.getStart());
+            fields.put("limit", request.getLimit());
+            fields.put("disallowCache", request.getDisallowCache());
+            return fields;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return when the call finished, epoch millis
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getDurationMicros() {
+            return durationMicros;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public int getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * @return fields of the first MAX_LOGGED_REQUESTS requests
+         */
+        public List<Map<String, Object>> getRequests() {
+            return requests;
+        }
+    }
+}
@@ -2,7 +2,7 @@ package org.jchien.twitchbrowser.health;
 
 import com.google.common.primitives.Longs;
 import com.lambdaworks.redis.RedisFuture;
-import com.lambdaworks.redis.api.async.RedisAsyncCommands;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
 import org.jchien.twitchbrowser.cache.CacheClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.health.Health;
@@ -32,17 +32,21 @@ public class RedisHealthIndicator implements HealthIndicator {
         try {
             long now = System.currentTimeMillis();
 
-            RedisAsyncCommands<String, byte[]> asyncCmds = cacheClient.getAsyncCommands();
+            RedisClusterAsyncCommands<String, byte[]> asyncCmds = cacheClient.getHealthAsyncCommands();
 
             byte[] bytes = Longs.toByteArray(now);
+            long setStart = System.nanoTime();
             RedisFuture<String> setFuture = asyncCmds.set(HEALTH_KEY, bytes);
+            cacheClient.track(asyncCmds, setFuture, setStart);
             // block until successful set or timeout
             String setResult = setFuture.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
             if (!"OK".equals(setResult)) {
                 return Health.down().withDetail("set_result", setResult).build();
             }
 
+            long getStart = System.nanoTime();
             RedisFuture<byte[]> getFuture = asyncCmds.get(HEALTH_KEY);
+            cacheClient.track(asyncCmds, getFuture, getStart);
             byte[] getResult = getFuture.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
             long result = Longs.fromByteArray(getResult);
 
@@ -51,7 +55,11 @@ public class RedisHealthIndicator implements HealthIndicator {
             }
 
             long elapsed = System.currentTimeMillis() - now;
-            return Health.up().withDetail("time", elapsed).build();
+            return Health.up()
+                    .withDetail("time", elapsed)
+                    .withDetail("serving_connections_open", cacheClient.getOpenServingConnectionCount())
+                    .withDetail("serving_connections", cacheClient.getServingConnectionCount())
+                    .build();
         } catch (Exception e) {
             return Health.down().withException(e).build();
         }
@@ -0,0 +1,99 @@
+package org.jchien.twitchbrowser.json;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Message;
+import org.jchien.twitchbrowser.twitch.TwitchProto;
+import org.jchien.twitchbrowser.util.ReflectionUtils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The jsonPath field options of a message compiled into a trie keyed by JSON property name, so a decoder can visit
+ * each JSON object once and find every field underneath it, rather than walking each field's path from the root.
+ *
+ * Also holds on to the message's default instance so builders can be created without reflection.
+ *
+ * @author jchien
+ */
+public class JsonPathTrie {
+    private final Message prototype;
+
+    private final Node root = new Node(Collections.emptyList());
+
+    public JsonPathTrie(Class<? extends GeneratedMessageV3> klazz) {
+        this.prototype = ReflectionUtils.invokeStaticMethodOrDie(klazz, "getDefaultInstance");
+
+        final Descriptors.Descriptor msgDescriptor = prototype.getDescriptorForType();
+        for (Descriptors.FieldDescriptor fd : msgDescriptor.getFields()) {
+            final List<String> jsonPath = fd.getOptions().getExtension(TwitchProto.jsonPath);
+            if (jsonPath.isEmpty()) {
+                continue;
+            }
+
+            switch (fd.getJavaType()) {
+                case INT:
+                case LONG:
+                case STRING:
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported JavaType: " + fd.getJavaType() + " for field " + fd.getName());
+            }
+
+            Node node = root;
+            for (int i = 0; i < jsonPath.size(); i++) {
+                node = node.getOrCreateChild(jsonPath.subList(0, i + 1));
+            }
+            node.fieldDescriptor = fd;
+        }
+    }
+
+    public Message.Builder newBuilder() {
+        return prototype.newBuilderForType();
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    public static class Node {
+        private final List<String> jsonPath;
+
+        private final Map<String, Node> children = new LinkedHashMap<>();
+
+        private Descriptors.FieldDescriptor fieldDescriptor;
+
+        private Node(List<String> jsonPath) {
+            this.jsonPath = jsonPath;
+        }
+
+        private Node getOrCreateChild(List<String> childPath) {
+            return children.computeIfAbsent(childPath.get(childPath.size() - 1), k -> new Node(childPath));
+        }
+
+        public List<String> getJsonPath() {
+            return jsonPath;
+        }
+
+        /**
+         * @return the child for the given JSON property name, or null if nothing is mapped underneath it
+         */
+        public Node getChild(String name) {
+            return children.get(name);
+        }
+
+        public Map<String, Node> getChildren() {
+            return children;
+        }
+
+        /**
+         * @return the field this path maps to, or null if this is an intermediate object
+         */
+        public Descriptors.FieldDescriptor getFieldDescriptor() {
+            return fieldDescriptor;
+        }
+    }
+}
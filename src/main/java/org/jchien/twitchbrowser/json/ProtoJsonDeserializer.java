@@ -6,77 +6,54 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
-import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.Descriptors;
-import com.google.protobuf.GeneratedMessage;
 import com.google.protobuf.GeneratedMessageV3;
 import com.google.protobuf.Message;
-import org.jchien.twitchbrowser.twitch.TwitchProto;
-import org.jchien.twitchbrowser.util.ReflectionUtils;
 
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 
 /**
  * @author jchien
  */
 public class ProtoJsonDeserializer<E extends GeneratedMessageV3> implements JsonDeserializer<E> {
-    private final Class<E> klazz;
-
-    private final List<JsonPathAndFieldDescriptor> jsonPathsAndFieldDescriptors;
+    private final JsonPathTrie trie;
 
     public ProtoJsonDeserializer(Class<E> klazz) {
-        this.klazz = klazz;
-
-        final Descriptors.Descriptor msgDescriptor = ReflectionUtils.invokeStaticMethodOrDie(klazz, "getDescriptor");
-        final GeneratedMessage.GeneratedExtension<DescriptorProtos.FieldOptions, List<String>> jsonPathExt = TwitchProto.jsonPath;
-        final List<Descriptors.FieldDescriptor> fieldDescriptors = msgDescriptor.getFields();
-
-        final List<JsonPathAndFieldDescriptor> jsonPathsAndFieldDescriptors = new ArrayList<>();
-        for (Descriptors.FieldDescriptor fd : fieldDescriptors) {
-            List<String> partsList = fd.getOptions().getExtension(jsonPathExt);
-            jsonPathsAndFieldDescriptors.add(new JsonPathAndFieldDescriptor(partsList, fd));
-        }
-        this.jsonPathsAndFieldDescriptors = jsonPathsAndFieldDescriptors;
-    }
-
-    private class JsonPathAndFieldDescriptor {
-        final List<String> jsonPath;
-        final Descriptors.FieldDescriptor fieldDescriptor;
-
-        public JsonPathAndFieldDescriptor(List<String> jsonPath, Descriptors.FieldDescriptor fieldDescriptor) {
-            this.jsonPath = jsonPath;
-            this.fieldDescriptor = fieldDescriptor;
-        }
+        // compile the jsonPaths once up front so deserializing only has to visit each json object once
+        this.trie = new JsonPathTrie(klazz);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public E deserialize(JsonElement json, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-        final E.Builder builder = ReflectionUtils.invokeStaticMethodOrDie(klazz, "newBuilder");
-        final JsonObject root = json.getAsJsonObject();
-        for (JsonPathAndFieldDescriptor jpafd : jsonPathsAndFieldDescriptors) {
-            final Descriptors.FieldDescriptor fd = jpafd.fieldDescriptor;
-            final List<String> jsonPath = jpafd.jsonPath;
+        final Message.Builder builder = trie.newBuilder();
+        parseObject(builder, trie.getRoot(), json.getAsJsonObject());
+        return (E) builder.build();
+    }
+
+    private void parseObject(final Message.Builder builder, final JsonPathTrie.Node node, final JsonObject o) {
+        for (Map.Entry<String, JsonPathTrie.Node> entry : node.getChildren().entrySet()) {
+            final JsonPathTrie.Node child = entry.getValue();
+            final Descriptors.FieldDescriptor fd = child.getFieldDescriptor();
             try {
-                parseValue(builder, fd, jsonPath, root);
+                final JsonElement value = o.get(entry.getKey());
+                if (fd != null) {
+                    parseValue(builder, fd, value.getAsJsonPrimitive());
+                } else {
+                    parseObject(builder, child, value.getAsJsonObject());
+                }
+            } catch (JsonParseException e) {
+                throw e;
             } catch (Exception e) {
-                throw new JsonParseException("failed to parse jsonPath=" + jsonPath + " for field " + fd.getName());
+                throw new JsonParseException("failed to parse jsonPath=" + child.getJsonPath() + (fd != null ? " for field " + fd.getName() : ""), e);
             }
         }
-        return (E) builder.build();
     }
 
     private void parseValue(final Message.Builder builder,
                             final Descriptors.FieldDescriptor fieldDescriptor,
-                            final List<String> jsonPath,
-                            final JsonObject root) {
-        JsonObject o = root;
-        for (int i=0 ; i < jsonPath.size() - 1; i++) {
-            o = o.getAsJsonObject(jsonPath.get(i));
-        }
-        final JsonPrimitive p = o.getAsJsonPrimitive(jsonPath.get(jsonPath.size()-1));
-
+                            final JsonPrimitive p) {
         // interpret value using appropriate method based on field type
         final Descriptors.FieldDescriptor.JavaType fieldType = fieldDescriptor.getJavaType();
         switch (fieldType) {
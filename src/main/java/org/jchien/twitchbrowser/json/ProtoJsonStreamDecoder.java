@@ -0,0 +1,102 @@
+package org.jchien.twitchbrowser.json;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Message;
+
+import java.io.IOException;
+
+/**
+ * Decodes a JSON object straight off a {@link JsonReader} into a protobuf message, using the jsonPath field options
+ * to decide where each field comes from. Unlike {@link ProtoJsonDeserializer} there's no intermediate JsonElement
+ * tree, each object is visited once using the compiled {@link JsonPathTrie} and anything not mapped to a field is
+ * skipped.
+ *
+ * @author jchien
+ */
+public class ProtoJsonStreamDecoder<E extends GeneratedMessageV3> {
+    private final JsonPathTrie trie;
+
+    public ProtoJsonStreamDecoder(Class<E> klazz) {
+        this.trie = new JsonPathTrie(klazz);
+    }
+
+    /**
+     * Reads the next value from the reader, which must be an object, and builds a message from it.
+     *
+     * If a mapped field has a value of the wrong type, the rest of the object is still consumed before throwing so the
+     * reader is left positioned after the object and the caller can move on to the next one.
+     */
+    @SuppressWarnings("unchecked")
+    public E decode(JsonReader reader) throws IOException {
+        final Message.Builder builder = trie.newBuilder();
+        final JsonParseException failure = readObject(reader, trie.getRoot(), builder);
+        if (failure != null) {
+            throw failure;
+        }
+        return (E) builder.build();
+    }
+
+    private JsonParseException readObject(JsonReader reader, JsonPathTrie.Node node, Message.Builder builder) throws IOException {
+        JsonParseException failure = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final JsonPathTrie.Node child = node.getChild(reader.nextName());
+
+            final JsonParseException childFailure;
+            if (child == null) {
+                reader.skipValue();
+                childFailure = null;
+            } else if (child.getFieldDescriptor() != null) {
+                childFailure = readValue(reader, child.getFieldDescriptor(), builder);
+            } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                childFailure = readObject(reader, child, builder);
+            } else {
+                // e.g. "channel": null, leave the fields underneath unset
+                reader.skipValue();
+                childFailure = null;
+            }
+
+            if (failure == null) {
+                failure = childFailure;
+            }
+        }
+        reader.endObject();
+
+        return failure;
+    }
+
+    private JsonParseException readValue(JsonReader reader, Descriptors.FieldDescriptor fieldDescriptor, Message.Builder builder) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        try {
+            // interpret value using appropriate method based on field type
+            switch (fieldDescriptor.getJavaType()) {
+                case INT:
+                    builder.setField(fieldDescriptor, reader.nextInt());
+                    break;
+                case LONG:
+                    builder.setField(fieldDescriptor, reader.nextLong());
+                    break;
+                case STRING:
+                    builder.setField(fieldDescriptor, reader.nextString());
+                    break;
+                default:
+                    throw new IllegalStateException("unsupported JavaType: " + fieldDescriptor.getJavaType() + " for field " + fieldDescriptor.getName());
+            }
+            return null;
+        } catch (NumberFormatException | IllegalStateException e) {
+            // the reader doesn't consume the value when it can't be read as the requested type
+            reader.skipValue();
+            return new JsonParseException("failed to parse " + token + " for field " + fieldDescriptor.getName(), e);
+        }
+    }
+}
@@ -1,61 +1,138 @@
 package org.jchien.twitchbrowser.twitch;
 
 import com.google.api.client.http.*;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.gson.*;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.protobuf.GeneratedMessageV3;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
 import org.jchien.twitchbrowser.PopularGamesRequest;
 import org.jchien.twitchbrowser.PopularGamesResponse;
 import org.jchien.twitchbrowser.StreamsRequest;
 import org.jchien.twitchbrowser.StreamsResponse;
-import org.jchien.twitchbrowser.json.ProtoJsonDeserializer;
+import org.jchien.twitchbrowser.json.ProtoJsonStreamDecoder;
+import org.jchien.twitchbrowser.util.LatencyHistogram;
+import org.jchien.twitchbrowser.util.LoggingThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.stereotype.Component;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.Charset;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * @author jchien
  */
 @Component("basicTwitchApiService")
-public class BasicTwitchApiService implements TwitchApiService {
+public class BasicTwitchApiService implements TwitchApiService, PublicMetrics {
     private static final Logger LOG = LoggerFactory.getLogger(BasicTwitchApiService.class);
 
-    private static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
+    private static final ProtoJsonStreamDecoder<TwitchStream> STREAM_DECODER = new ProtoJsonStreamDecoder<>(TwitchStream.class);
 
-    private static final Gson GSON = new GsonBuilder()
-            .setPrettyPrinting()
-            .registerTypeAdapter(TwitchStream.class, new ProtoJsonDeserializer<>(TwitchStream.class))
-            .registerTypeAdapter(TwitchGame.class, new ProtoJsonDeserializer<>(TwitchGame.class))
-            .create();
-
-    private static final String HOST = "https://api.twitch.tv";
+    private static final ProtoJsonStreamDecoder<TwitchGame> GAME_DECODER = new ProtoJsonStreamDecoder<>(TwitchGame.class);
 
     private static final String STREAMS_ENDPOINT = "/kraken/streams";
 
     private static final String POPULAR_GAMES_ENDPOINT = "/kraken/games/top";
 
-    private static final int CONNECT_TIMEOUT_MS = 1000;
+    public static final int CONNECT_TIMEOUT_MS = 1000;
 
     private static final int READ_TIMEOUT_MS = 3000;
 
-    private static final int MAX_LIMIT = 25;
+    // kraken's own max, same as CachingTwitchApiService's cap on requests it answers from cached pages
+    private static final int MAX_LIMIT = 100;
+
+    // past this many queued requests we fail fast instead of piling up behind a slow upstream
+    private static final int HTTP_QUEUE_SIZE = 256;
 
     private String twitchApiClientId;
 
+    // scheme and host, e.g. https://api.twitch.tv
+    private final String krakenBaseUrl;
+
+    private final HttpRequestFactory httpReqFactory;
+
+    // blocking http calls for the async methods run here instead of on the caller's thread
+    private final ExecutorService httpExecutor;
+
+    // request sent until headers are back, failed requests included
+    private final LatencyHistogram streamsHttpLatency = new LatencyHistogram();
+
+    // reading and decoding the body, it's streamed so the two can't be told apart
+    private final LatencyHistogram streamsDecodeLatency = new LatencyHistogram();
+
+    private final LatencyHistogram gamesHttpLatency = new LatencyHistogram();
+
+    private final LatencyHistogram gamesDecodeLatency = new LatencyHistogram();
+
+    // closes the connection a thread's request is on
+    private final Consumer<Thread> requestAborter;
+
+    // cancelled while queued, never sent
+    private final AtomicLong skippedRequestCount = new AtomicLong();
+
+    // cancelled after being sent, the connection was closed instead of waiting for the response
+    private final AtomicLong abortedRequestCount = new AtomicLong();
+
     @Autowired
-    public BasicTwitchApiService(@Qualifier("twitchApiClientId") String twitchApiClientId) {
-        this.twitchApiClientId = twitchApiClientId;
+    public BasicTwitchApiService(@Qualifier("twitchApiClientId") String twitchApiClientId,
+                                 @Qualifier("krakenBaseUrl") String krakenBaseUrl,
+                                 KrakenHttpTransport krakenHttpTransport) {
+        // no point in having more threads than connections, they'd just be waiting on the pool
+        this(twitchApiClientId, krakenBaseUrl, krakenHttpTransport.getTransport(), krakenHttpTransport.getMaxConnections(),
+                krakenHttpTransport::abortRequest);
     }
 
-    private HttpRequest buildGetRequest(GenericUrl url) throws IOException {
-        final HttpRequestFactory httpReqFactory = HTTP_TRANSPORT.createRequestFactory();
+    public BasicTwitchApiService(String twitchApiClientId,
+                                 String krakenBaseUrl,
+                                 HttpTransport httpTransport,
+                                 int maxConcurrentRequests) {
+        // cancelled requests run until they're done
+        this(twitchApiClientId, krakenBaseUrl, httpTransport, maxConcurrentRequests, thread -> {});
+    }
+
+    /**
+     * @param requestAborter makes the request a thread is blocked on fail right away, used when the async methods'
+     *                       futures are cancelled
+     */
+    public BasicTwitchApiService(String twitchApiClientId,
+                                 String krakenBaseUrl,
+                                 HttpTransport httpTransport,
+                                 int maxConcurrentRequests,
+                                 Consumer<Thread> requestAborter) {
+        this.twitchApiClientId = twitchApiClientId;
+        this.krakenBaseUrl = krakenBaseUrl;
+        this.httpReqFactory = httpTransport.createRequestFactory();
+        this.httpExecutor = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(HTTP_QUEUE_SIZE),
+                new LoggingThreadFactory("KrakenHttpThread"));
+        this.requestAborter = requestAborter;
+    }
 
+    /**
+     * @param deadline the grpc call's, if any. the timeouts are cut down to what's left of it
+     */
+    private HttpRequest buildGetRequest(GenericUrl url, Deadline deadline) throws IOException {
         final HttpHeaders headers = new HttpHeaders()
                 .setAccept("application/vnd.twitchtv.v5+json")
                 .setAcceptEncoding("UTF-8")
@@ -63,151 +140,296 @@ public class BasicTwitchApiService implements TwitchApiService {
 
         final HttpRequest httpReq = httpReqFactory.buildGetRequest(url)
                 .setHeaders(headers)
-                .setConnectTimeout(CONNECT_TIMEOUT_MS)
-                .setReadTimeout(READ_TIMEOUT_MS);
+                .setConnectTimeout(getTimeoutMillis(CONNECT_TIMEOUT_MS, deadline))
+                .setReadTimeout(getTimeoutMillis(READ_TIMEOUT_MS, deadline));
 
         return httpReq;
     }
 
+    private static int getTimeoutMillis(int timeoutMillis, Deadline deadline) {
+        if (deadline == null) {
+            return timeoutMillis;
+        }
+        // rounded up so a request timing out because of the deadline only does so once the deadline has passed. 0
+        // means no timeout at all, so a deadline that's already passed gets the shortest one there is
+        final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline.timeRemaining(TimeUnit.NANOSECONDS) + 999_999);
+        return (int) Math.max(1, Math.min(timeoutMillis, remainingMillis));
+    }
+
+    private static HttpResponse execute(HttpRequest httpReq, LatencyHistogram latency, String description) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return httpReq.execute();
+        } catch (Exception e) {
+            throw new IOException("failed to make http request for " + description + " to " + httpReq.getUrl(), e);
+        } finally {
+            latency.recordSince(start);
+        }
+    }
+
+    private <T> T parseResponse(HttpResponse httpResp,
+                                JsonResponseHandler<T> responseHandler,
+                                LatencyHistogram latency) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return parseResponse(httpResp, responseHandler);
+        } finally {
+            latency.recordSince(start);
+        }
+    }
+
     private <T> T parseResponse(HttpResponse httpResp, JsonResponseHandler<T> responseHandler) throws IOException {
         if (200 != httpResp.getStatusCode()) {
+            // drain the body so the connection can go back to the pool
+            httpResp.ignore();
             throw new IOException("unable to parse stream, error code " + httpResp.getStatusCode());
         }
 
-        // http response is claiming ISO-8859-1 charset, but it should be UTF-8 since the content type is application/json
-        final Charset contentCharset = Charset.forName("UTF-8");
-        final InputStream is = httpResp.getContent();
-
-        final String content = readString(is, contentCharset);
-
-        final JsonParser jsonParser = new JsonParser();
-        final JsonElement json = jsonParser.parse(content);
-        final JsonObject root = json.getAsJsonObject();
-        return responseHandler.handle(root, content);
+        // closing the content after it's fully read releases the connection back to the pool for reuse
+        try (InputStream is = httpResp.getContent()) {
+            return parseContent(is, responseHandler);
+        }
     }
 
-    private String readString(InputStream is, Charset contentCharset) throws IOException {
-        final int bufSize = 1024;
-        final byte[] buf = new byte[bufSize];
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+    /**
+     * Decodes the response body in a single pass as it's read, without buffering it or building a JsonElement tree.
+     */
+    static <T> T parseContent(InputStream is, JsonResponseHandler<T> responseHandler) throws IOException {
+        // http response is claiming ISO-8859-1 charset, but it should be UTF-8 since the content type is application/json
+        final JsonReader reader = new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        try {
+            return responseHandler.handle(reader);
+        } catch (IllegalStateException e) {
+            // JsonReader throws this when the document isn't shaped the way the handler expects
+            throw new IOException("unexpected json structure at " + reader.getPath(), e);
+        }
+    }
 
-        int bytesRead;
-        do {
-            bytesRead = is.read(buf, 0, bufSize);
-            if (bytesRead > 0) {
-                baos.write(buf, 0, bytesRead);
+    /**
+     * Decodes each element of the array under the given top level field, skipping everything else in the root object.
+     * Elements that fail to decode are logged and dropped.
+     */
+    private static <E extends GeneratedMessageV3> void decodeArrayField(JsonReader reader,
+                                                                        String fieldName,
+                                                                        ProtoJsonStreamDecoder<E> decoder,
+                                                                        Consumer<E> consumer,
+                                                                        String description) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!fieldName.equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
             }
-        } while (bytesRead > 0);
 
-        return new String(baos.toByteArray(), contentCharset);
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    LOG.error("failed to parse " + description + ", unexpected " + reader.peek() + " at " + fieldName + "[" + i + "]");
+                    reader.skipValue();
+                    continue;
+                }
+
+                try {
+                    consumer.accept(decoder.decode(reader));
+                } catch (JsonParseException e) {
+                    LOG.error("failed to parse " + description + " at " + fieldName + "[" + i + "]", e);
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
     }
 
     @Override
     public StreamsResponse getStreams(StreamsRequest request) throws IOException {
+        return getStreams(request, Context.current().getDeadline());
+    }
+
+    private StreamsResponse getStreams(StreamsRequest request, Deadline deadline) throws IOException {
         final String gameName = request.getGameName();
         final int limit = Math.min(MAX_LIMIT, request.getLimit());
 
-        final GenericUrl url = buildStreamsUrl(gameName, limit);
-        final HttpRequest httpReq = buildGetRequest(url);
-
-        final HttpResponse httpResp;
+        final GenericUrl url = buildStreamsUrl(gameName, request.getStart(), limit);
+        final HttpRequest httpReq = buildGetRequest(url, deadline);
 
-        final long start = System.currentTimeMillis();
-        try {
-            httpResp = httpReq.execute();
-        } catch (Exception e) {
-            throw new IOException("failed to make http request for \"" + gameName + "\" to " + httpReq.getUrl(), e);
-        }
-        final long elapsed = System.currentTimeMillis() - start;
-        LOG.info("took " + elapsed + " ms to make query for \"" + gameName + "\"");
+        final HttpResponse httpResp = execute(httpReq, streamsHttpLatency, "\"" + gameName + "\"");
+        return parseResponse(httpResp, new StreamsHandler(gameName, request.getStart()), streamsDecodeLatency);
+    }
 
-        return parseResponse(httpResp, new StreamsHandler(gameName));
+    @Override
+    public CompletableFuture<StreamsResponse> getStreamsAsync(StreamsRequest request) {
+        return callAsync(deadline -> getStreams(request, deadline));
     }
 
-    private GenericUrl buildStreamsUrl(String gameName, int limit) {
-        return new GenericUrl(HOST + STREAMS_ENDPOINT)
+    private GenericUrl buildStreamsUrl(String gameName, int offset, int limit) {
+        return new GenericUrl(krakenBaseUrl + STREAMS_ENDPOINT)
                 .set("game", gameName)
+                .set("offset", offset)
                 .set("limit", limit);
     }
 
     @Override
     public PopularGamesResponse getPopularGames(PopularGamesRequest request) throws IOException {
-        final GenericUrl url = buildPopularGamesUrl(request.getLimit());
-        final HttpRequest httpReq = buildGetRequest(url);
+        return getPopularGames(request, Context.current().getDeadline());
+    }
 
-        final HttpResponse httpResp;
+    private PopularGamesResponse getPopularGames(PopularGamesRequest request, Deadline deadline) throws IOException {
+        final GenericUrl url = buildPopularGamesUrl(request.getLimit());
+        final HttpRequest httpReq = buildGetRequest(url, deadline);
 
-        final long start = System.currentTimeMillis();
-        try {
-            httpResp = httpReq.execute();
-        } catch (Exception e) {
-            throw new IOException("failed to make http request for popular games to " + httpReq.getUrl(), e);
-        }
-        final long elapsed = System.currentTimeMillis() - start;
-        LOG.info("took " + elapsed + " ms to get popular games");
+        final HttpResponse httpResp = execute(httpReq, gamesHttpLatency, "popular games");
+        return parseResponse(httpResp, new GamesHandler(), gamesDecodeLatency);
+    }
 
-        return parseResponse(httpResp, new GamesHandler());
+    @Override
+    public CompletableFuture<PopularGamesResponse> getPopularGamesAsync(PopularGamesRequest request) {
+        return callAsync(deadline -> getPopularGames(request, deadline));
     }
 
     private GenericUrl buildPopularGamesUrl(int limit) {
-        return new GenericUrl(HOST + POPULAR_GAMES_ENDPOINT)
+        return new GenericUrl(krakenBaseUrl + POPULAR_GAMES_ENDPOINT)
                 .set("limit", limit);
     }
 
-    private interface JsonResponseHandler<T> {
-        T handle(JsonObject root, String rawJson);
+    private interface HttpCall<T> {
+        T call(Deadline deadline) throws IOException;
+    }
+
+    /**
+     * Cancelling the returned future keeps the request from being sent if it's still queued, or aborts it if it's been
+     * sent, so a caller that's gone doesn't hold up a thread and a connection.
+     *
+     * The request's timeouts are bounded by the deadline of the grpc call current when this is called. Time spent
+     * queued for a thread counts against it.
+     */
+    private <T> CompletableFuture<T> callAsync(HttpCall<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final CancellableHttpCall<T> cancellableCall = new CancellableHttpCall<>(call, Context.current().getDeadline(), future);
+        future.whenComplete((value, t) -> {
+            if (future.isCancelled()) {
+                cancellableCall.abort();
+            }
+        });
+        try {
+            httpExecutor.execute(cancellableCall);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IOException("too many pending twitch api requests", e));
+        }
+        return future;
+    }
+
+    private class CancellableHttpCall<T> implements Runnable {
+        private final HttpCall<T> call;
+
+        // null if there isn't one
+        private final Deadline deadline;
+
+        private final CompletableFuture<T> future;
+
+        // while the call is running, guarded by this
+        private Thread thread;
+
+        CancellableHttpCall(HttpCall<T> call, Deadline deadline, CompletableFuture<T> future) {
+            this.call = call;
+            this.deadline = deadline;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (future.isDone()) {
+                    skippedRequestCount.incrementAndGet();
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                future.complete(call.call(deadline));
+            } catch (Throwable t) {
+                if (deadline != null && deadline.isExpired()) {
+                    // most likely timed out early because of it
+                    t = Status.DEADLINE_EXCEEDED.withDescription("deadline passed during twitch api request").withCause(t).asRuntimeException();
+                }
+                future.completeExceptionally(t);
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                }
+            }
+        }
+
+        synchronized void abort() {
+            // the thread can't have moved on to another request while this is held
+            if (thread != null) {
+                abortedRequestCount.incrementAndGet();
+                requestAborter.accept(thread);
+            }
+        }
+    }
+
+    interface JsonResponseHandler<T> {
+        T handle(JsonReader reader) throws IOException;
     }
 
-    private static class StreamsHandler implements JsonResponseHandler<StreamsResponse> {
+    static class StreamsHandler implements JsonResponseHandler<StreamsResponse> {
         final String gameName;
 
-        private StreamsHandler(String gameName) {
+        final int start;
+
+        StreamsHandler(String gameName) {
+            this(gameName, 0);
+        }
+
+        StreamsHandler(String gameName, int start) {
             this.gameName = gameName;
+            this.start = start;
         }
 
         @Override
-        public StreamsResponse handle(JsonObject root, String rawJson) {
+        public StreamsResponse handle(JsonReader reader) throws IOException {
             final long resultTimestamp = System.currentTimeMillis();
             final StreamsResponse.Builder response = StreamsResponse.newBuilder()
+                    .setStart(start)
                     .setTimestamp(resultTimestamp)
                     .setFromCache(false);
 
-            final JsonArray streams = root.getAsJsonArray("streams");
-            for (JsonElement stream : streams) {
-                try {
-                    final String json = GSON.toJson(stream);
-                    final TwitchStream tsm = GSON.fromJson(json, TwitchStream.class);
-                    response.addStreams(tsm);
-                    if (!TwitchResponseValidator.isValid(tsm)) {
-                        LOG.warn("Bad stream " + tsm + "\n from \n" + rawJson);
-                    }
-                } catch (Exception e) {
-                    LOG.error("failed to parse results for query " + gameName + ":\n" + root, e);
+            decodeArrayField(reader, "streams", STREAM_DECODER, tsm -> {
+                response.addStreams(tsm);
+                if (!TwitchResponseValidator.isValid(tsm)) {
+                    LOG.warn("Bad stream for query " + gameName + ": " + tsm);
                 }
-            }
+            }, "results for query " + gameName);
+
             return response.build();
         }
     }
 
-    private static class GamesHandler implements JsonResponseHandler<PopularGamesResponse> {
+    static class GamesHandler implements JsonResponseHandler<PopularGamesResponse> {
         @Override
-        public PopularGamesResponse handle(JsonObject root, String rawJson) {
-            final PopularGamesResponse.Builder response = PopularGamesResponse.newBuilder();
-            final JsonArray topGames = root.getAsJsonArray("top");
-            for (JsonElement gameJson : topGames) {
-                try {
-                    final String json = GSON.toJson(gameJson);
-                    final TwitchGame game = GSON.fromJson(json, TwitchGame.class);
-                    response.addGames(game);
-                } catch (Exception e) {
-                    LOG.error("failed to parse top games", e);
-                }
-            }
+        public PopularGamesResponse handle(JsonReader reader) throws IOException {
+            final PopularGamesResponse.Builder response = PopularGamesResponse.newBuilder()
+                    .setTimestamp(System.currentTimeMillis())
+                    .setFromCache(false);
+            decodeArrayField(reader, "top", GAME_DECODER, response::addGames, "top games");
             return response.build();
         }
     }
 
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.addAll(streamsHttpLatency.metrics("twibro.kraken.streams.http"));
+        metrics.addAll(streamsDecodeLatency.metrics("twibro.kraken.streams.decode"));
+        metrics.addAll(gamesHttpLatency.metrics("twibro.kraken.games.http"));
+        metrics.addAll(gamesDecodeLatency.metrics("twibro.kraken.games.decode"));
+        metrics.add(new Metric<>("twibro.kraken.requests.skipped", skippedRequestCount.get()));
+        metrics.add(new Metric<>("twibro.kraken.requests.aborted", abortedRequestCount.get()));
+        return metrics;
+    }
+
     @Override
     public void shutdown() {
+        httpExecutor.shutdownNow();
     }
 }
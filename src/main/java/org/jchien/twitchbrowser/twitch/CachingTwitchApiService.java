@@ -1,38 +1,83 @@
 package org.jchien.twitchbrowser.twitch;
 
-import com.google.protobuf.InvalidProtocolBufferException;
 import com.lambdaworks.redis.RedisConnectionException;
 import com.lambdaworks.redis.RedisException;
 import com.lambdaworks.redis.RedisFuture;
-import com.lambdaworks.redis.api.async.RedisAsyncCommands;
+import com.lambdaworks.redis.SetArgs;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import io.grpc.Context;
+import io.grpc.Deadline;
 import org.jchien.twitchbrowser.PopularGamesRequest;
 import org.jchien.twitchbrowser.PopularGamesResponse;
 import org.jchien.twitchbrowser.StreamsRequest;
 import org.jchien.twitchbrowser.StreamsResponse;
 import org.jchien.twitchbrowser.cache.CacheClient;
+import org.jchien.twitchbrowser.cache.CachePayloadCodec;
 import org.jchien.twitchbrowser.cache.CacheResult;
+import org.jchien.twitchbrowser.cache.LocalStreamsCache;
+import org.jchien.twitchbrowser.cache.PopularityTracker;
+import org.jchien.twitchbrowser.grpc.CallCancellation;
+import org.jchien.twitchbrowser.util.AsyncLimiter;
+import org.jchien.twitchbrowser.util.CompletableFutures;
+import org.jchien.twitchbrowser.util.LatencyHistogram;
+import org.jchien.twitchbrowser.util.LoggingThreadFactory;
+import org.jchien.twitchbrowser.util.SingleFlight;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
-import java.util.concurrent.ExecutionException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
+ * getStreams calls made for a grpc call pick up its Context. Redis lookups give up early if the call's deadline is
+ * sooner than the usual timeout, and a call that's cancelled or past its deadline by the time its lookup is done
+ * doesn't go on to fetch from twitch. Cancelling a returned future cancels the fetch behind it, unless other callers
+ * are still waiting on the same fetch.
+ *
+ * Fetches that can be shared run under Context.ROOT with the usual http timeouts, since callers that join later still
+ * need them after the one that started them has given up. Fetches nobody else can join, like uncacheable requests in
+ * a batch, are bounded by the call's deadline.
+ *
  * @author jchien
  */
 @Component("cachingTwitchApiService")
-public class CachingTwitchApiService implements TwitchApiService {
+public class CachingTwitchApiService implements TwitchApiService, PublicMetrics {
     private static final Logger LOG = LoggerFactory.getLogger(CachingTwitchApiService.class);
 
     private static final String CACHE_NAMESPACE = "twitchbrowser.v2";
 
-    // cache lookup timeout
+    // cache lookup timeout, less if the grpc call's deadline is sooner
     private static final long TIMEOUT_MS = 200;
 
     // do fresh query if cache result is this old
@@ -40,60 +85,469 @@ public class CachingTwitchApiService implements TwitchApiService {
 
     public static final int GAME_STREAM_LIMIT = 25;
 
+    // requests for more than this many streams get this many, same as kraken's own max
+    private static final int MAX_PAGED_LIMIT = 4 * GAME_STREAM_LIMIT;
+
+    private static final String GAMES_CACHE_KEY = CACHE_NAMESPACE + ":games:top";
+
+    // kraken's max, every popular games request is sliced out of the one list this long
+    private static final int GAMES_FETCH_LIMIT = 100;
+
+    // what kraken gives you if you don't ask for a limit
+    private static final int DEFAULT_GAMES_LIMIT = 10;
+
     private CacheClient cacheClient;
 
+    private final CachePayloadCodec payloadCodec;
+
+    // in-process tier in front of redis
+    private final LocalStreamsCache localCache;
+
+    // which pages get asked for, for the primer
+    private final PopularityTracker popularityTracker;
+
     private final TwitchApiService wrappedService;
 
+    // only one upstream fetch per cache key at a time, concurrent misses share its result
+    private final SingleFlight<String, StreamsResponse> streamsFlights = new SingleFlight<>();
+
+    // serve stale results up to staleMaxAgeMillis old while refreshing them in the background
+    private final boolean staleWhileRevalidate;
+
+    private final long staleMaxAgeMillis;
+
+    // redis expires entries this long after they're written
+    private final long cacheMaxAgeMillis;
+
+    // most upstream fetches one getStreamsBatchAsync call makes at once
+    private final int batchMaxUpstreamCalls;
+
+    // popular games change slowly, so they get their own staleness threshold
+    private final long gamesStaleMillis;
+
+    // in-process tier for popular games, there's only the one entry
+    private volatile PopularGamesResponse localGames;
+
+    private final SingleFlight<String, PopularGamesResponse> gamesFlights = new SingleFlight<>();
+
+    private final AtomicLong gamesLocalHitCount = new AtomicLong();
+
+    private final AtomicLong gamesRedisHitCount = new AtomicLong();
+
+    // only used to time out cache lookups, nothing else should run on it
+    private final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new LoggingThreadFactory("CacheTimeoutThread"));
+
+    // cache entries are parsed here rather than on redis' threads, where it would hold up every other reply
+    private final ExecutorService decodeExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new LoggingThreadFactory("CacheDecodeThread"));
+
+    // cache keys with a background refresh queued or running
+    private final Set<String> pendingRefreshes = ConcurrentHashMap.newKeySet();
+
+    // told about every response written to the cache by this instance
+    private final List<BiConsumer<String, StreamsResponse>> updateListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong staleServedCount = new AtomicLong();
+
+    private final AtomicLong refreshScheduledCount = new AtomicLong();
+
+    // what each getStreams page lookup ended up as. stale ones were served stale, misses went to twitch, including
+    // hits too old to serve. skipped requests never looked at the cache.
+    private final AtomicLong streamsHitCount = new AtomicLong();
+
+    private final AtomicLong streamsStaleCount = new AtomicLong();
+
+    private final AtomicLong streamsMissCount = new AtomicLong();
+
+    private final AtomicLong streamsSkippedCount = new AtomicLong();
+
+    // work that wasn't done because the grpc call it was for was cancelled or past its deadline, either before it
+    // started or while it was looking in the cache
+    private final AtomicLong cancelledOnArrivalCount = new AtomicLong();
+
+    private final AtomicLong upstreamSkippedCount = new AtomicLong();
+
+    // from sending the command to its reply, whether or not the caller had already timed out by then
+    private final LatencyHistogram redisGetLatency = new LatencyHistogram();
+
+    private final LatencyHistogram redisMgetLatency = new LatencyHistogram();
+
+    private final LatencyHistogram redisSetLatency = new LatencyHistogram();
+
     @Autowired
     public CachingTwitchApiService(@Qualifier("basicTwitchApiService") TwitchApiService wrappedService,
-                                   CacheClient cacheClient) {
+                                   CacheClient cacheClient,
+                                   CachePayloadCodec payloadCodec,
+                                   LocalStreamsCache localCache,
+                                   PopularityTracker popularityTracker,
+                                   @Qualifier("staleWhileRevalidate") boolean staleWhileRevalidate,
+                                   @Qualifier("staleMaxAgeMillis") long staleMaxAgeMillis,
+                                   @Qualifier("cacheMaxAgeMillis") long cacheMaxAgeMillis,
+                                   @Qualifier("batchMaxUpstreamCalls") int batchMaxUpstreamCalls,
+                                   @Qualifier("gamesStaleMillis") long gamesStaleMillis) {
         this.cacheClient = cacheClient;
+        this.payloadCodec = payloadCodec;
+        this.localCache = localCache;
+        this.popularityTracker = popularityTracker;
         this.wrappedService = wrappedService;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleMaxAgeMillis = staleMaxAgeMillis;
+        this.cacheMaxAgeMillis = cacheMaxAgeMillis;
+        this.batchMaxUpstreamCalls = batchMaxUpstreamCalls;
+        this.gamesStaleMillis = gamesStaleMillis;
+
+        if (cacheMaxAgeMillis < STALE_MS || (staleWhileRevalidate && cacheMaxAgeMillis < staleMaxAgeMillis)) {
+            LOG.warn("cacheMaxAgeMillis=" + cacheMaxAgeMillis + " expires entries from redis before they're done being useful");
+        }
     }
 
+    @Override
     public StreamsResponse getStreams(StreamsRequest request) throws IOException {
-        final boolean isCacheable = isCacheableRequest(request);
+        return CompletableFutures.getOrThrow(getStreamsAsync(request));
+    }
+
+    @Override
+    public CompletableFuture<StreamsResponse> getStreamsAsync(StreamsRequest request) {
+        final Context context = Context.current();
+        if (context.isCancelled()) {
+            cancelledOnArrivalCount.incrementAndGet();
+            return CompletableFutures.failed(CallCancellation.toException(context, "call was over before it started"));
+        }
+
+        if (!isCacheableRequest(request)) {
+            if (isPageableRequest(request)) {
+                // spans pages, which the batch lookup already knows how to put together
+                return getStreamsBatchAsync(Collections.singletonList(request)).get(0);
+            }
+            streamsSkippedCount.incrementAndGet();
+            return wrappedService.getStreamsAsync(request);
+        }
+
+        popularityTracker.record(getCacheKey(request), request);
 
         final long now = System.currentTimeMillis();
-        final CacheResult cacheResult;
-        if (isCacheable) {
-            cacheResult = getCacheResult(request);
-            logCacheTiming(request, cacheResult, now);
-        } else {
-            cacheResult = CacheResult.SKIPPED_RESULT;
+        final CompletableFuture<StreamsResponse> response = new CompletableFuture<>();
+        getCacheResult(request, now, getCacheTimeoutMillis(context))
+                .thenCompose(cacheResult -> respond(request, cacheResult, now, Supplier::get, response))
+                .whenComplete((value, t) -> {
+                    if (t != null) {
+                        response.completeExceptionally(CompletableFutures.unwrap(t));
+                    } else {
+                        response.complete(value);
+                    }
+                });
+        return response;
+    }
+
+
+    /**
+     * Looks up every page the requests need in one round trip to redis, then fetches whatever wasn't cached from
+     * twitch with at most batchMaxUpstreamCalls fetches going at once. Requests that don't line up with pages are
+     * sliced out of the pages covering them. The futures are in the same order as the requests and complete
+     * independently of each other. A page is only given up on once every request using it has been cancelled.
+     *
+     * Requests for more than MAX_PAGED_LIMIT streams get MAX_PAGED_LIMIT, same as they would from twitch.
+     */
+    @Override
+    public List<CompletableFuture<StreamsResponse>> getStreamsBatchAsync(List<StreamsRequest> requests) {
+        final Context context = Context.current();
+        if (context.isCancelled()) {
+            cancelledOnArrivalCount.addAndGet(requests.size());
+            final List<CompletableFuture<StreamsResponse>> responses = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                responses.add(CompletableFutures.failed(CallCancellation.toException(context, "call was over before it started")));
+            }
+            return responses;
+        }
+
+        final long now = System.currentTimeMillis();
+        final AsyncLimiter upstreamLimiter = new AsyncLimiter(batchMaxUpstreamCalls);
+
+        // every page any of the requests need, each looked up and fetched once
+        final Map<String, StreamsRequest> pages = new LinkedHashMap<>();
+        for (StreamsRequest request : requests) {
+            if (isPageableRequest(request)) {
+                for (StreamsRequest page : getPageRequests(request)) {
+                    final String cacheKey = getCacheKey(page);
+                    popularityTracker.record(cacheKey, page);
+                    pages.putIfAbsent(cacheKey, page);
+                }
+            }
+        }
+
+        final List<StreamsRequest> pageRequests = new ArrayList<>(pages.values());
+        final CompletableFuture<List<CacheResult>> cacheResults = getCacheResults(pageRequests, getCacheTimeoutMillis(context));
+        final Map<String, CompletableFuture<StreamsResponse>> pageResponses = new HashMap<>();
+        for (int i = 0; i < pageRequests.size(); i++) {
+            final int index = i;
+            final StreamsRequest page = pageRequests.get(i);
+            final CompletableFuture<StreamsResponse> pageResponse = new CompletableFuture<>();
+            cacheResults.thenCompose(results -> respond(page, results.get(index), now,
+                    upstreamLimiter::submit, pageResponse))
+                    .whenComplete((value, t) -> {
+                        if (t != null) {
+                            pageResponse.completeExceptionally(CompletableFutures.unwrap(t));
+                        } else {
+                            pageResponse.complete(value);
+                        }
+                    });
+            pageResponses.put(getCacheKey(page), pageResponse);
+        }
+
+        // requests that haven't been cancelled using each page
+        final Map<String, AtomicInteger> pageUsers = new HashMap<>();
+        final List<CompletableFuture<StreamsResponse>> responses = new ArrayList<>(requests.size());
+        for (StreamsRequest request : requests) {
+            if (!isPageableRequest(request)) {
+                streamsSkippedCount.incrementAndGet();
+                responses.add(upstreamLimiter.submit(() -> callInContext(context, () -> wrappedService.getStreamsAsync(request))));
+                continue;
+            }
+
+            final List<String> pageKeys = new ArrayList<>();
+            final List<CompletableFuture<StreamsResponse>> covering = new ArrayList<>();
+            for (StreamsRequest page : getPageRequests(request)) {
+                final String cacheKey = getCacheKey(page);
+                pageKeys.add(cacheKey);
+                covering.add(pageResponses.get(cacheKey));
+                pageUsers.computeIfAbsent(cacheKey, k -> new AtomicInteger()).incrementAndGet();
+            }
+
+            final CompletableFuture<StreamsResponse> response;
+            if (isCacheableRequest(request)) {
+                // its own future so cancelling it doesn't cancel the page for everyone
+                response = covering.get(0).thenApply(Function.identity());
+            } else {
+                response = CompletableFuture.allOf(covering.toArray(new CompletableFuture<?>[covering.size()]))
+                        .thenCompose(v -> slice(request, covering, context));
+            }
+            response.whenComplete((value, t) -> {
+                if (response.isCancelled()) {
+                    for (String cacheKey : pageKeys) {
+                        if (pageUsers.get(cacheKey).decrementAndGet() == 0) {
+                            pageResponses.get(cacheKey).cancel(false);
+                        }
+                    }
+                }
+            });
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    /**
+     * @return the pages of GAME_STREAM_LIMIT streams covering request, up to MAX_PAGED_LIMIT streams worth
+     */
+    private List<StreamsRequest> getPageRequests(StreamsRequest request) {
+        final int firstPage = request.getStart() / GAME_STREAM_LIMIT;
+        final int lastPage = (request.getStart() + getPagedLimit(request) - 1) / GAME_STREAM_LIMIT;
+
+        final List<StreamsRequest> pages = new ArrayList<>(lastPage - firstPage + 1);
+        for (int page = firstPage; page <= lastPage; page++) {
+            pages.add(getPageRequest(request.getGameName(), page));
+        }
+        return pages;
+    }
+
+    private static int getPagedLimit(StreamsRequest request) {
+        return Math.min(request.getLimit(), MAX_PAGED_LIMIT);
+    }
+
+    private static StreamsRequest getPageRequest(String gameName, int page) {
+        return StreamsRequest.newBuilder()
+                .setGameName(gameName)
+                .setStart(page * GAME_STREAM_LIMIT)
+                .setLimit(GAME_STREAM_LIMIT)
+                .build();
+    }
+
+    /**
+     * Cuts request's streams out of the pages covering it. The result is only as fresh as the oldest page.
+     *
+     * Pages fetched at different times can overlap as streams move up and down the list, and the duplicates are
+     * dropped. If that leaves too few streams the page after is fetched to make up for them. The result can still be
+     * short if the list moved by more than a page, or if that page couldn't be had.
+     */
+    private CompletableFuture<StreamsResponse> slice(StreamsRequest request,
+                                                     List<CompletableFuture<StreamsResponse>> covering,
+                                                     Context context) {
+        final List<StreamsResponse> pages = new ArrayList<>(covering.size() + 1);
+        int streamCount = 0;
+        for (CompletableFuture<StreamsResponse> future : covering) {
+            final StreamsResponse page = future.join();
+            pages.add(page);
+            streamCount += page.getStreamsCount();
+        }
+
+        final int wanted = request.getStart() % GAME_STREAM_LIMIT + getPagedLimit(request);
+        final int distinctCount = mergeStreams(pages).size();
+        final StreamsResponse lastPage = pages.get(pages.size() - 1);
+        if (distinctCount == streamCount
+                || distinctCount >= wanted
+                || lastPage.getStreamsCount() < GAME_STREAM_LIMIT) {
+            // nothing dropped, enough left anyway, or there's nothing after the last page
+            return CompletableFuture.completedFuture(slice(request, pages));
+        }
+
+        final int nextPage = (request.getStart() + getPagedLimit(request) - 1) / GAME_STREAM_LIMIT + 1;
+        return callInContext(context, () -> getStreamsAsync(getPageRequest(request.getGameName(), nextPage)))
+                .handle((page, t) -> {
+                    if (t != null) {
+                        LOG.warn("unable to fill out " + getRequestString(request) + " after dropping duplicate streams",
+                                CompletableFutures.unwrap(t));
+                    } else {
+                        pages.add(page);
+                    }
+                    return slice(request, pages);
+                });
+    }
+
+    private StreamsResponse slice(StreamsRequest request, List<StreamsResponse> pages) {
+        final StreamsResponse.Builder response = StreamsResponse.newBuilder()
+                .setStart(request.getStart())
+                .setTimestamp(Long.MAX_VALUE)
+                .setFromCache(true);
+        for (StreamsResponse page : pages) {
+            response.setTimestamp(Math.min(response.getTimestamp(), page.getTimestamp()))
+                    .setFromCache(response.getFromCache() && page.getFromCache())
+                    .setStale(response.getStale() || page.getStale());
+        }
+
+        final List<TwitchStream> streams = mergeStreams(pages);
+        final int from = Math.min(request.getStart() % GAME_STREAM_LIMIT, streams.size());
+        final int to = Math.min(from + getPagedLimit(request), streams.size());
+        return response.addAllStreams(streams.subList(from, to)).build();
+    }
+
+    /**
+     * @return the pages' streams in order, without any that showed up on an earlier page
+     */
+    private static List<TwitchStream> mergeStreams(List<StreamsResponse> pages) {
+        final List<TwitchStream> streams = new ArrayList<>(pages.size() * GAME_STREAM_LIMIT);
+        final Set<Long> streamIds = new HashSet<>();
+        for (StreamsResponse page : pages) {
+            for (TwitchStream stream : page.getStreamsList()) {
+                if (streamIds.add(stream.getId())) {
+                    streams.add(stream);
+                }
+            }
         }
+        return streams;
+    }
+
+    /**
+     * Answers request from its cache result if that's good enough, otherwise from twitch.
+     *
+     * @param upstream runs the call to twitch, so the caller can hold it back if it's making a lot of them
+     * @param caller what the response is going to, the call to twitch is skipped or cancelled if it's cancelled
+     */
+    private CompletableFuture<StreamsResponse> respond(
+            StreamsRequest request,
+            CacheResult cacheResult,
+            long now,
+            Function<Supplier<CompletableFuture<StreamsResponse>>, CompletableFuture<StreamsResponse>> upstream,
+            CompletableFuture<StreamsResponse> caller) {
+        logCacheTiming(request, cacheResult, now);
 
         if (isAcceptableCacheResult(cacheResult, now)) {
-            return cacheResult.getResponse();
+            streamsHitCount.incrementAndGet();
+            return CompletableFuture.completedFuture(cacheResult.getResponse());
         }
 
-        try {
-            final StreamsResponse response = wrappedService.getStreams(request);
-            if (isCacheable) {
-                updateCache(request, response);
+        if (staleWhileRevalidate && isServableStaleResult(cacheResult, now)) {
+            scheduleRefresh(request);
+            streamsStaleCount.incrementAndGet();
+            staleServedCount.incrementAndGet();
+            return CompletableFuture.completedFuture(cacheResult.getResponse().toBuilder()
+                    .setStale(true)
+                    .build());
+        }
+
+        if (caller.isCancelled()) {
+            // gave up while we were looking in the cache
+            upstreamSkippedCount.incrementAndGet();
+            return CompletableFutures.failed(new CancellationException("cancelled before fetching " + getRequestString(request)));
+        }
+
+        streamsMissCount.incrementAndGet();
+        final CompletableFuture<StreamsResponse> fetch = upstream.apply(() -> fetchAndUpdateCache(request));
+        caller.whenComplete((value, t) -> {
+            if (caller.isCancelled()) {
+                fetch.cancel(false);
             }
-            return response;
-        } catch (IOException e) {
-            return getStaleResponseOrException(cacheResult, now, e);
+        });
+        return fetch
+                .handle((response, t) -> {
+                    if (t != null) {
+                        return getStaleResponseOrException(cacheResult, now, CompletableFutures.unwrap(t));
+                    }
+                    return response;
+                });
+    }
+
+    private CompletableFuture<StreamsResponse> fetchAndUpdateCache(StreamsRequest request) {
+        return streamsFlights.execute(getCacheKey(request), () -> {
+            // shared with whoever joins later, so it isn't bounded by the deadline of whoever started it
+            final CompletableFuture<StreamsResponse> fetch = callInContext(Context.ROOT, () -> wrappedService.getStreamsAsync(request));
+            return CompletableFutures.propagateCancel(fetch.thenApply(response -> {
+                updateCache(request, response);
+                return response;
+            }), fetch);
+        });
+    }
+
+    private void scheduleRefresh(StreamsRequest request) {
+        final String cacheKey = getCacheKey(request);
+        if (!pendingRefreshes.add(cacheKey)) {
+            // already on its way
+            return;
         }
+
+        refreshScheduledCount.incrementAndGet();
+        fetchAndUpdateCache(request).whenComplete((response, t) -> {
+            pendingRefreshes.remove(cacheKey);
+            if (t != null) {
+                LOG.warn("background refresh failed for " + getRequestString(request), CompletableFutures.unwrap(t));
+            }
+        });
     }
 
-    private boolean isCacheableRequest(StreamsRequest request) {
+    /**
+     * @return whether request is exactly one cached page
+     */
+    boolean isCacheableRequest(StreamsRequest request) {
         return !request.getDisallowCache()
                 // offset must be aligned with GAME_STREAM_LIMIT, changing this will break cache keys
                 && request.getStart() % GAME_STREAM_LIMIT == 0
                 && request.getLimit() == GAME_STREAM_LIMIT;
     }
 
+    /**
+     * @return whether request can be answered from the cached pages covering it
+     */
+    private boolean isPageableRequest(StreamsRequest request) {
+        return !request.getDisallowCache()
+                && request.getStart() >= 0
+                && request.getLimit() > 0;
+    }
+
     private void updateCache(StreamsRequest request, StreamsResponse response) {
         final String cacheKey = getCacheKey(request);
         response = response.toBuilder()
                 .setFromCache(true)
                 .build();
 
+        localCache.put(cacheKey, response);
+        notifyUpdateListeners(cacheKey, response);
+
         try {
-            final RedisAsyncCommands<String, byte[]> asyncCommands = cacheClient.getAsyncCommands();
-            asyncCommands.set(cacheKey, response.toByteArray());
+            // both on the same connection so they're applied in order
+            final RedisClusterAsyncCommands<String, byte[]> asyncCommands = cacheClient.getAsyncCommands(cacheKey);
+            final SetArgs setArgs = SetArgs.Builder.px(cacheMaxAgeMillis);
+            // payload first, so a timestamp never points at an entry that hasn't been written yet
+            final long start = System.nanoTime();
+            record(asyncCommands, asyncCommands.set(cacheKey, payloadCodec.encode(response.toByteArray()), setArgs), start, redisSetLatency);
+            record(asyncCommands, asyncCommands.set(getTimestampKey(cacheKey), encodeTimestamp(response.getTimestamp()), setArgs), start, redisSetLatency);
         } catch (RedisConnectionException e) {
             // be less verbose if it's a connection problem
             LOG.warn("unable to update cache: " + e.getMessage());
@@ -102,68 +556,453 @@ public class CachingTwitchApiService implements TwitchApiService {
         }
     }
 
-    private StreamsResponse getStaleResponseOrException(CacheResult cacheResult, long now, IOException e) throws IOException {
+    /**
+     * @param listener called with the cache key and response whenever this instance writes a response to the cache,
+     *                 on whichever thread fetched it, so it shouldn't block
+     */
+    void addUpdateListener(BiConsumer<String, StreamsResponse> listener) {
+        updateListeners.add(listener);
+    }
+
+    private void notifyUpdateListeners(String cacheKey, StreamsResponse response) {
+        for (BiConsumer<String, StreamsResponse> listener : updateListeners) {
+            try {
+                listener.accept(cacheKey, response);
+            } catch (RuntimeException e) {
+                LOG.warn("cache update listener failed for " + cacheKey, e);
+            }
+        }
+    }
+
+    private StreamsResponse getStaleResponseOrException(CacheResult cacheResult, long now, Throwable t) {
         if (cacheResult.getStatus() == CacheResult.Status.HIT) {
             final long cacheResultAge = getAge(now, cacheResult.getResponse().getTimestamp());
-            LOG.warn("twitch api query failed, falling back on stale cache result, aged " + cacheResultAge + " ms", e);
+            LOG.warn("twitch api query failed, falling back on stale cache result, aged " + cacheResultAge + " ms", t);
             return cacheResult.getResponse();
         }
 
         // nothing to fall back on, rethrow exception
-        throw e;
+        throw new CompletionException(t);
     }
 
     @Override
     public PopularGamesResponse getPopularGames(PopularGamesRequest request) throws IOException {
-        // don't want to cache this at this time
-        return wrappedService.getPopularGames(request);
+        return CompletableFutures.getOrThrow(getPopularGamesAsync(request));
     }
 
-    @Nonnull
-    private CacheResult getCacheResult(StreamsRequest request) {
-        final String cacheKey = getCacheKey(request);
+    /**
+     * Every request is answered from a single cached list of the top GAMES_FETCH_LIMIT games, kept in memory and in
+     * redis. If it's stale and twitch can't be reached the stale list is served instead.
+     */
+    @Override
+    public CompletableFuture<PopularGamesResponse> getPopularGamesAsync(PopularGamesRequest request) {
+        final long now = System.currentTimeMillis();
+        final PopularGamesResponse local = localGames;
+        if (local != null && !isGamesStale(now, local)) {
+            gamesLocalHitCount.incrementAndGet();
+            return CompletableFuture.completedFuture(sliceGames(request, local));
+        }
 
-        final long cacheStart = System.currentTimeMillis();
-        byte[] bytes = null;
+        return redisGetGames().handle((redisGames, t) -> {
+            if (t != null) {
+                logCacheError("popular games", CompletableFutures.unwrap(t));
+            }
+            if (redisGames != null && (local == null || redisGames.getTimestamp() > local.getTimestamp())) {
+                localGames = redisGames;
+                return redisGames;
+            }
+            return local;
+        }).thenCompose(cached -> {
+            if (cached != null && !isGamesStale(now, cached)) {
+                gamesRedisHitCount.incrementAndGet();
+                return CompletableFuture.completedFuture(sliceGames(request, cached));
+            }
+
+            return fetchAndUpdateGames().handle((response, t) -> {
+                if (t != null) {
+                    if (cached == null) {
+                        throw new CompletionException(CompletableFutures.unwrap(t));
+                    }
+                    LOG.warn("twitch api query failed, falling back on stale popular games, aged "
+                            + getAge(now, cached.getTimestamp()) + " ms", CompletableFutures.unwrap(t));
+                    return sliceGames(request, cached);
+                }
+                return sliceGames(request, response);
+            });
+        });
+    }
+
+    private CompletableFuture<PopularGamesResponse> fetchAndUpdateGames() {
+        final PopularGamesRequest request = PopularGamesRequest.newBuilder()
+                .setLimit(GAMES_FETCH_LIMIT)
+                .build();
+        return gamesFlights.execute(GAMES_CACHE_KEY, () ->
+                callInContext(Context.ROOT, () -> wrappedService.getPopularGamesAsync(request))
+                        .thenApply(response -> {
+                            updateGamesCache(response);
+                            return response;
+                        }));
+    }
+
+    private void updateGamesCache(PopularGamesResponse response) {
+        response = response.toBuilder()
+                .setFromCache(true)
+                .build();
+
+        localGames = response;
 
         try {
-            final RedisAsyncCommands<String, byte[]> asyncCommands = cacheClient.getAsyncCommands();
-            final RedisFuture<byte[]> future = asyncCommands.get(cacheKey);
-            bytes = future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            LOG.warn("interrupted querying cache for " + getRequestString(request), e);
+            final RedisClusterAsyncCommands<String, byte[]> asyncCommands = cacheClient.getAsyncCommands(GAMES_CACHE_KEY);
+            final long start = System.nanoTime();
+            record(asyncCommands, asyncCommands.set(GAMES_CACHE_KEY,
+                    payloadCodec.encode(response.toByteArray()),
+                    SetArgs.Builder.px(cacheMaxAgeMillis)), start, redisSetLatency);
         } catch (RedisConnectionException e) {
             // be less verbose if it's a connection problem
-            LOG.warn("error querying cache for " + getRequestString(request) + ": " + e.getMessage());
-        } catch (RedisException | ExecutionException e) {
-            LOG.warn("error querying cache for " + getRequestString(request), e);
-        } catch (TimeoutException e) {
-            // ain't nobody got time for that
-            LOG.warn("timeout querying cache for " + getRequestString(request), e);
+            LOG.warn("unable to update popular games cache: " + e.getMessage());
+        } catch (RedisException e) {
+            LOG.warn("unable to update popular games cache", e);
         }
+    }
 
-        final long fetchTimeMillis = System.currentTimeMillis() - cacheStart;
-        if (bytes != null) {
+    private CompletableFuture<PopularGamesResponse> redisGetGames() {
+        return redisGet(GAMES_CACHE_KEY, TIMEOUT_MS).thenApplyAsync(bytes -> {
+            if (bytes == null) {
+                return null;
+            }
             try {
-                return new CacheResult(StreamsResponse.parseFrom(bytes), fetchTimeMillis, CacheResult.Status.HIT);
-            } catch (InvalidProtocolBufferException e) {
-                LOG.warn("corrupted entry in cache for " + getRequestString(request), e);
+                return payloadCodec.decode(bytes, PopularGamesResponse.parser());
+            } catch (IOException e) {
+                LOG.warn("corrupted popular games cache entry", e);
+                return null;
+            }
+        }, decodeExecutor);
+    }
+
+    private static PopularGamesResponse sliceGames(PopularGamesRequest request, PopularGamesResponse games) {
+        final int limit = request.getLimit() > 0 ? Math.min(request.getLimit(), GAMES_FETCH_LIMIT) : DEFAULT_GAMES_LIMIT;
+        if (games.getGamesCount() <= limit) {
+            return games;
+        }
+        return games.toBuilder()
+                .clearGames()
+                .addAllGames(games.getGamesList().subList(0, limit))
+                .build();
+    }
+
+    private boolean isGamesStale(long now, PopularGamesResponse games) {
+        return getAge(now, games.getTimestamp()) > gamesStaleMillis;
+    }
+
+    /**
+     * Checks the local cache first, then redis. Never completes exceptionally, problems talking to redis are logged and
+     * treated as a miss.
+     */
+    @Nonnull
+    private CompletableFuture<CacheResult> getCacheResult(StreamsRequest request, long now, long timeoutMillis) {
+        final String cacheKey = getCacheKey(request);
+
+        final long cacheStart = System.currentTimeMillis();
+
+        final StreamsResponse localResponse = localCache.get(cacheKey);
+        if (localResponse != null && !isStale(now, localResponse.getTimestamp())) {
+            return CompletableFuture.completedFuture(
+                    new CacheResult(localResponse, System.currentTimeMillis() - cacheStart, CacheResult.Status.HIT));
+        }
+
+        final CompletableFuture<StreamsResponse> future;
+        if (localResponse == null) {
+            future = redisGetResponse(cacheKey, timeoutMillis);
+        } else {
+            // only download the payload if redis has something newer than the stale copy we already have
+            final long start = System.nanoTime();
+            future = redisGet(getTimestampKey(cacheKey), timeoutMillis).thenCompose(timestampBytes -> {
+                final Long redisTimestamp = decodeTimestamp(timestampBytes);
+                if (redisTimestamp == null || redisTimestamp <= localResponse.getTimestamp()) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                // the two lookups share the timeout
+                final long remainingMillis = timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                return redisGetResponse(cacheKey, Math.max(0, remainingMillis));
+            });
+        }
+
+        return future.handle((redisResponse, t) -> {
+            if (t != null) {
+                logCacheError(getRequestString(request), CompletableFutures.unwrap(t));
+            }
+            return toCacheResult(cacheKey, localResponse, redisResponse, System.currentTimeMillis() - cacheStart);
+        });
+    }
+
+    /**
+     * Looks up many requests at once, same as {@link #getCacheResult(StreamsRequest, long, long)} except everything that
+     * isn't fresh in the local cache is fetched from redis in a single MGET. Uncacheable requests come back SKIPPED.
+     * Never completes exceptionally, the results are in the same order as the requests.
+     */
+    @Nonnull
+    public CompletableFuture<List<CacheResult>> getCacheResults(List<StreamsRequest> requests) {
+        return getCacheResults(requests, TIMEOUT_MS);
+    }
+
+    @Nonnull
+    private CompletableFuture<List<CacheResult>> getCacheResults(List<StreamsRequest> requests, long timeoutMillis) {
+        final long cacheStart = System.currentTimeMillis();
+
+        final CacheResult[] results = new CacheResult[requests.size()];
+        final StreamsResponse[] localResponses = new StreamsResponse[requests.size()];
+        final List<Integer> redisIndexes = new ArrayList<>(requests.size());
+        final List<String> redisKeys = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            final StreamsRequest request = requests.get(i);
+            if (!isCacheableRequest(request)) {
+                results[i] = CacheResult.SKIPPED_RESULT;
+                continue;
+            }
+
+            final String cacheKey = getCacheKey(request);
+            final StreamsResponse localResponse = localCache.get(cacheKey);
+            if (localResponse != null && !isStale(cacheStart, localResponse.getTimestamp())) {
+                results[i] = new CacheResult(localResponse, System.currentTimeMillis() - cacheStart, CacheResult.Status.HIT);
+            } else {
+                localResponses[i] = localResponse;
+                redisIndexes.add(i);
+                redisKeys.add(cacheKey);
+            }
+        }
+
+        if (redisKeys.isEmpty()) {
+            return CompletableFuture.completedFuture(Arrays.asList(results));
+        }
+
+        return redisMgetResponses(redisKeys, timeoutMillis).handle((redisResponses, t) -> {
+            if (t != null) {
+                logCacheError("batch of " + redisKeys.size() + " keys", CompletableFutures.unwrap(t));
+            }
+
+            final long fetchTimeMillis = System.currentTimeMillis() - cacheStart;
+            for (int j = 0; j < redisIndexes.size(); j++) {
+                final int i = redisIndexes.get(j);
+                final StreamsResponse redisResponse = redisResponses != null ? redisResponses.get(j) : null;
+                results[i] = toCacheResult(redisKeys.get(j), localResponses[i], redisResponse, fetchTimeMillis);
+            }
+            return Arrays.asList(results);
+        });
+    }
+
+    /**
+     * Looks up when the cached results for many requests were fetched, without downloading the results themselves.
+     * The local cache is used when it's fresh, everything else comes from redis in a single MGET of the timestamp
+     * keys. Entries are null for uncacheable requests and anything not in the cache.
+     *
+     * This is for the primer and goes over its connection. Unlike the other lookups it fails if redis can't be
+     * reached, since every game would look like a miss otherwise.
+     */
+    @Nonnull
+    public CompletableFuture<List<Long>> getCacheTimestamps(List<StreamsRequest> requests) {
+        final long now = System.currentTimeMillis();
+
+        final Long[] timestamps = new Long[requests.size()];
+        final List<Integer> redisIndexes = new ArrayList<>(requests.size());
+        final List<String> redisKeys = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            final StreamsRequest request = requests.get(i);
+            if (!isCacheableRequest(request)) {
+                continue;
+            }
+
+            final String cacheKey = getCacheKey(request);
+            final StreamsResponse localResponse = localCache.get(cacheKey);
+            if (localResponse != null && !isStale(now, localResponse.getTimestamp())) {
+                timestamps[i] = localResponse.getTimestamp();
+            } else {
+                redisIndexes.add(i);
+                redisKeys.add(getTimestampKey(cacheKey));
             }
         }
 
+        if (redisKeys.isEmpty()) {
+            return CompletableFuture.completedFuture(Arrays.asList(timestamps));
+        }
+
+        return primerMget(redisKeys).thenApply(values -> {
+            for (int j = 0; j < redisIndexes.size(); j++) {
+                timestamps[redisIndexes.get(j)] = decodeTimestamp(values.get(j));
+            }
+            return Arrays.asList(timestamps);
+        });
+    }
+
+    /**
+     * Fetches fresh results from twitch and writes them to the cache, regardless of what's cached now. Shares the
+     * upstream call with any request already fetching the same key.
+     */
+    public CompletableFuture<StreamsResponse> refresh(StreamsRequest request) {
+        if (!isCacheableRequest(request)) {
+            return CompletableFutures.failed(new IllegalArgumentException("not a cacheable request: " + getRequestString(request)));
+        }
+        return fetchAndUpdateCache(request);
+    }
+
+    private CompletableFuture<byte[]> redisGet(String key, long timeoutMillis) {
+        try {
+            final RedisClusterAsyncCommands<String, byte[]> asyncCommands = cacheClient.getAsyncCommands(key);
+            final long start = System.nanoTime();
+            return withTimeout(record(asyncCommands, asyncCommands.get(key), start, redisGetLatency), timeoutMillis);
+        } catch (RedisException e) {
+            return CompletableFutures.failed(e);
+        }
+    }
+
+    /**
+     * Missing and corrupted entries both come back as null.
+     */
+    private CompletableFuture<StreamsResponse> redisGetResponse(String key, long timeoutMillis) {
+        return redisGet(key, timeoutMillis).thenApplyAsync(bytes -> decodeResponse(key, bytes), decodeExecutor);
+    }
+
+    private CompletableFuture<List<StreamsResponse>> redisMgetResponses(List<String> keys, long timeoutMillis) {
+        final CompletableFuture<List<byte[]>> values;
+        try {
+            final RedisClusterAsyncCommands<String, byte[]> asyncCommands = cacheClient.getAsyncCommands();
+            final long start = System.nanoTime();
+            values = withTimeout(record(asyncCommands, asyncCommands.mget(keys.toArray(new String[keys.size()])), start, redisMgetLatency), timeoutMillis);
+        } catch (RedisException e) {
+            return CompletableFutures.failed(e);
+        }
+
+        return values.thenApplyAsync(valueList -> {
+            final List<StreamsResponse> responses = new ArrayList<>(valueList.size());
+            for (int i = 0; i < valueList.size(); i++) {
+                responses.add(decodeResponse(keys.get(i), valueList.get(i)));
+            }
+            return responses;
+        }, decodeExecutor);
+    }
+
+    private StreamsResponse decodeResponse(String key, byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return payloadCodec.decode(bytes);
+        } catch (IOException e) {
+            LOG.warn("corrupted entry in cache for " + key, e);
+            return null;
+        }
+    }
+
+    private CompletableFuture<List<byte[]>> primerMget(List<String> keys) {
+        try {
+            final RedisClusterAsyncCommands<String, byte[]> asyncCommands = cacheClient.getPrimerAsyncCommands();
+            final long start = System.nanoTime();
+            return withTimeout(record(asyncCommands, asyncCommands.mget(keys.toArray(new String[keys.size()])), start, redisMgetLatency), TIMEOUT_MS);
+        } catch (RedisException e) {
+            return CompletableFutures.failed(e);
+        }
+    }
+
+    /**
+     * @param commands what command was sent with, so it's counted against the right connection too
+     */
+    private <T> RedisFuture<T> record(RedisClusterAsyncCommands<String, byte[]> commands,
+                                      RedisFuture<T> command,
+                                      long startNanos,
+                                      LatencyHistogram latency) {
+        cacheClient.track(commands, command, startNanos);
+        command.whenComplete((v, t) -> latency.recordSince(startNanos));
+        return command;
+    }
+
+    private <T> CompletableFuture<T> withTimeout(RedisFuture<T> command, long timeoutMillis) {
+        return CompletableFutures.withTimeout(command.toCompletableFuture(), timeoutMillis, TimeUnit.MILLISECONDS, timeoutScheduler);
+    }
+
+    /**
+     * Runs call with context attached. Lookups complete on redis' threads and queued fetches start on whichever thread
+     * finished the one before, neither of which has the right context otherwise.
+     */
+    private static <T> T callInContext(Context context, Supplier<T> call) {
+        final Context previous = context.attach();
+        try {
+            return call.get();
+        } finally {
+            context.detach(previous);
+        }
+    }
+
+    /**
+     * @return TIMEOUT_MS, or less if the grpc call has less than that left before its deadline
+     */
+    private static long getCacheTimeoutMillis(Context context) {
+        final Deadline deadline = context.getDeadline();
+        if (deadline == null) {
+            return TIMEOUT_MS;
+        }
+        return Math.max(0, Math.min(TIMEOUT_MS, deadline.timeRemaining(TimeUnit.MILLISECONDS)));
+    }
+
+    private CacheResult toCacheResult(String cacheKey,
+                                      StreamsResponse localResponse,
+                                      StreamsResponse redisResponse,
+                                      long fetchTimeMillis) {
+        // the local copy may be stale but it's still worth holding on to as a fallback if redis has nothing newer
+        if (redisResponse != null
+                && (localResponse == null || redisResponse.getTimestamp() > localResponse.getTimestamp())) {
+            localCache.put(cacheKey, redisResponse);
+            return new CacheResult(redisResponse, fetchTimeMillis, CacheResult.Status.HIT);
+        } else if (localResponse != null) {
+            return new CacheResult(localResponse, fetchTimeMillis, CacheResult.Status.HIT);
+        }
+
         return new CacheResult(null, fetchTimeMillis, CacheResult.Status.MISS);
     }
 
+    private void logCacheError(String what, Throwable t) {
+        if (t instanceof RedisConnectionException) {
+            // be less verbose if it's a connection problem
+            LOG.warn("error querying cache for " + what + ": " + t.getMessage());
+        } else if (t instanceof TimeoutException) {
+            // ain't nobody got time for that
+            LOG.warn("timeout querying cache for " + what, t);
+        } else {
+            LOG.warn("error querying cache for " + what, t);
+        }
+    }
+
     private String getRequestString(StreamsRequest request) {
         return "[game=" + request.getGameName() + " start=" + request.getStart() + " limit=" + request.getLimit() + "]";
     }
 
-    private String getCacheKey(StreamsRequest request) {
+    public String getCacheKey(StreamsRequest request) {
         // this only works because isCacheable(StreamsRequest) requires offset alignment with GAME_STREAM_LIMIT
         final int pageNum = request.getStart() / GAME_STREAM_LIMIT;
         return CACHE_NAMESPACE + ":" + pageNum + ":" + request.getGameName();
     }
 
+    // small key next to each entry holding its timestamp, so freshness can be checked without fetching the entry.
+    // the hash tag puts it in the same cluster slot as the entry so both writes go to the same node in order.
+    private String getTimestampKey(String cacheKey) {
+        return "{" + cacheKey + "}:ts";
+    }
+
+    private static byte[] encodeTimestamp(long timestamp) {
+        // plain decimal so it's readable from redis-cli
+        return Long.toString(timestamp).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static Long decodeTimestamp(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(new String(bytes, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            LOG.warn("corrupted cache timestamp: " + e.getMessage());
+            return null;
+        }
+    }
+
     private void logCacheTiming(StreamsRequest request, CacheResult cacheResult, long now) {
         if (LOG.isDebugEnabled()) {
             if (cacheResult.getStatus() == CacheResult.Status.HIT) {
@@ -192,6 +1031,11 @@ public class CachingTwitchApiService implements TwitchApiService {
         return false;
     }
 
+    private boolean isServableStaleResult(CacheResult result, long now) {
+        return result.getStatus() == CacheResult.Status.HIT
+                && getAge(now, result.getResponse().getTimestamp()) <= staleMaxAgeMillis;
+    }
+
     private boolean isStale(long currentTimestamp, long cacheTimestamp) {
         return currentTimestamp - cacheTimestamp > STALE_MS;
     }
@@ -200,6 +1044,38 @@ public class CachingTwitchApiService implements TwitchApiService {
         return currentTimestamp - cacheTimestamp;
     }
 
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final long hits = streamsHitCount.get();
+        final long stale = streamsStaleCount.get();
+        final long misses = streamsMissCount.get();
+        final long lookups = hits + stale + misses;
+
+        final List<Metric<?>> metrics = new ArrayList<>(Arrays.asList(
+                new Metric<>("twibro.upstream.streams.calls", streamsFlights.getExecutedCount()),
+                new Metric<>("twibro.upstream.streams.collapsed", streamsFlights.getCollapsedCount()),
+                new Metric<>("twibro.upstream.streams.inflight", streamsFlights.getInFlightCount()),
+                new Metric<>("twibro.upstream.streams.abandoned", streamsFlights.getAbandonedCount()),
+                new Metric<>("twibro.upstream.games.calls", gamesFlights.getExecutedCount()),
+                new Metric<>("twibro.upstream.games.collapsed", gamesFlights.getCollapsedCount()),
+                new Metric<>("twibro.cache.games.localHits", gamesLocalHitCount.get()),
+                new Metric<>("twibro.cache.games.redisHits", gamesRedisHitCount.get()),
+                new Metric<>("twibro.cache.streams.staleServed", staleServedCount.get()),
+                new Metric<>("twibro.cache.streams.refreshesScheduled", refreshScheduledCount.get()),
+                new Metric<>("twibro.cache.streams.hits", hits),
+                new Metric<>("twibro.cache.streams.stale", stale),
+                new Metric<>("twibro.cache.streams.misses", misses),
+                new Metric<>("twibro.cache.streams.skipped", streamsSkippedCount.get()),
+                new Metric<>("twibro.cancelled.onArrival", cancelledOnArrivalCount.get()),
+                new Metric<>("twibro.cancelled.upstreamSkipped", upstreamSkippedCount.get()),
+                // stale counts as a hit, it was answered without waiting on twitch
+                new Metric<>("twibro.cache.streams.hitRatio", lookups > 0 ? (double) (hits + stale) / lookups : 0.0)));
+        metrics.addAll(redisGetLatency.metrics("twibro.redis.get"));
+        metrics.addAll(redisMgetLatency.metrics("twibro.redis.mget"));
+        metrics.addAll(redisSetLatency.metrics("twibro.redis.set"));
+        return metrics;
+    }
+
     // shutdown is currently called by TwitchBrowserGrpcService, maybe it should be managed as part of the bean lifecycle
     @Override
     public void shutdown() {
@@ -208,6 +1084,8 @@ public class CachingTwitchApiService implements TwitchApiService {
         // seems like log4j2 is getting shutdown before this log message happens so we'll print to stdout too
         System.out.println("CachingTwitchApiService: shutting down");
 
+        timeoutScheduler.shutdownNow();
+        decodeExecutor.shutdownNow();
         wrappedService.shutdown();
     }
 }
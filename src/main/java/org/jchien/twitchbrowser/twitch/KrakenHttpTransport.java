@@ -0,0 +1,209 @@
+package org.jchien.twitchbrowser.twitch;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.jchien.twitchbrowser.util.LoggingThreadFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP transport for talking to Kraken that keeps connections alive in a pool, so a cache miss costs a request round
+ * trip rather than a TCP connect plus TLS handshake. Connections that sit idle too long are closed in the background
+ * before the server gets around to it and we try to reuse a dead one.
+ *
+ * HTTP/2 isn't an option here, nothing that plugs into google-http-client on java 8 speaks it.
+ *
+ * @author jchien
+ */
+public class KrakenHttpTransport implements PublicMetrics {
+    private static final String METRIC_PREFIX = "twibro.kraken.http.";
+
+    private static final int SOCKET_BUFFER_SIZE = 8192;
+
+    private final int maxConnections;
+
+    private final CountingConnManager connManager;
+
+    private final ApacheHttpTransport transport;
+
+    private final ScheduledExecutorService idleConnectionEvictor;
+
+    private final AtomicLong handshakeCount = new AtomicLong();
+
+    public KrakenHttpTransport(int maxConnections, long idleTimeoutMillis, long poolTimeoutMillis) {
+        this.maxConnections = maxConnections;
+
+        final HttpParams params = new BasicHttpParams();
+        // idle connections are evicted in the background instead of checking each one before use
+        HttpConnectionParams.setStaleCheckingEnabled(params, false);
+        HttpConnectionParams.setSocketBufferSize(params, SOCKET_BUFFER_SIZE);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        // everything goes to the same host so per route and total limits are the same thing
+        ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnections));
+        ConnManagerParams.setTimeout(params, poolTimeoutMillis);
+
+        final SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", new HandshakeCountingSocketFactory(SSLSocketFactory.getSocketFactory()), 443));
+
+        this.connManager = new CountingConnManager(params, registry);
+        this.transport = new ApacheHttpTransport(new DefaultHttpClient(connManager, params));
+
+        this.idleConnectionEvictor = Executors.newSingleThreadScheduledExecutor(new LoggingThreadFactory("KrakenIdleConnectionEvictor"));
+        final long evictPeriodMillis = Math.max(1000L, idleTimeoutMillis / 2);
+        idleConnectionEvictor.scheduleWithFixedDelay(() -> {
+            connManager.closeExpiredConnections();
+            connManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }, evictPeriodMillis, evictPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Closes the connection thread is making its request on, if it has one, so the request fails right away instead of
+     * waiting out its timeouts. The connection isn't reused.
+     */
+    public void abortRequest(Thread thread) {
+        final ManagedClientConnection conn = connManager.leasedBy.get(thread);
+        if (conn != null) {
+            try {
+                conn.abortConnection();
+            } catch (IOException e) {
+                // it's being thrown away either way
+            }
+        }
+    }
+
+    public void shutdown() {
+        idleConnectionEvictor.shutdownNow();
+        connManager.shutdown();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>(METRIC_PREFIX + "pool.connections", connManager.getConnectionsInPool()),
+                new Metric<>(METRIC_PREFIX + "pool.leased", connManager.leasedCount.get()),
+                new Metric<>(METRIC_PREFIX + "pool.max", maxConnections),
+                new Metric<>(METRIC_PREFIX + "handshakes", handshakeCount.get()));
+    }
+
+    /**
+     * Keeps track of how many connections are handed out and to which thread, the pool only reports the total.
+     */
+    private static class CountingConnManager extends ThreadSafeClientConnManager {
+        private final AtomicInteger leasedCount = new AtomicInteger();
+
+        // requests are made synchronously, so this is the connection each thread's request is on
+        private final ConcurrentMap<Thread, ManagedClientConnection> leasedBy = new ConcurrentHashMap<>();
+
+        // the other way around, so releasing doesn't have to search leasedBy
+        private final ConcurrentMap<ManagedClientConnection, Thread> leasedTo = new ConcurrentHashMap<>();
+
+        CountingConnManager(HttpParams params, SchemeRegistry registry) {
+            super(params, registry);
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ClientConnectionRequest request = super.requestConnection(route, state);
+            return new ClientConnectionRequest() {
+                @Override
+                public ManagedClientConnection getConnection(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ConnectionPoolTimeoutException {
+                    final ManagedClientConnection conn = request.getConnection(timeout, tunit);
+                    leasedCount.incrementAndGet();
+                    leasedBy.put(Thread.currentThread(), conn);
+                    leasedTo.put(conn, Thread.currentThread());
+                    return conn;
+                }
+
+                @Override
+                public void abortRequest() {
+                    request.abortRequest();
+                }
+            };
+        }
+
+        @Override
+        public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+            leasedCount.decrementAndGet();
+            // usually but not always released by the thread that leased it
+            final Thread thread = leasedTo.remove(conn);
+            if (thread != null) {
+                leasedBy.remove(thread, conn);
+            }
+            super.releaseConnection(conn, validDuration, timeUnit);
+        }
+    }
+
+    /**
+     * Counts new https connections, each of which costs a TLS handshake.
+     */
+    private class HandshakeCountingSocketFactory implements LayeredSocketFactory {
+        private final LayeredSocketFactory delegate;
+
+        HandshakeCountingSocketFactory(LayeredSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return delegate.createSocket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params) throws IOException {
+            handshakeCount.incrementAndGet();
+            return delegate.connectSocket(sock, host, port, localAddress, localPort, params);
+        }
+
+        @Override
+        public boolean isSecure(Socket sock) {
+            return delegate.isSecure(sock);
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            // only used when tunnelling through a proxy
+            handshakeCount.incrementAndGet();
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.jchien.twitchbrowser.twitch;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import org.jchien.twitchbrowser.StreamsDelta;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.jchien.twitchbrowser.TwitchStreamChange;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Diffs StreamsResponses by stream id so only what changed between two of them has to be sent. Usually that's a
+ * handful of viewer counts, the urls and names hardly ever change.
+ *
+ * @author jchien
+ */
+public class StreamsDeltas {
+    private static final List<FieldDescriptor> STREAM_FIELDS = TwitchStream.getDescriptor().getFields();
+
+    private StreamsDeltas() {}
+
+    /**
+     * @return null if next can't be expressed as a delta, which happens if it has the same stream more than once
+     */
+    public static StreamsDelta diff(StreamsResponse previous, StreamsResponse next) {
+        final Map<Long, TwitchStream> previousById = byId(previous.getStreamsList());
+        final Map<Long, TwitchStream> nextById = byId(next.getStreamsList());
+        if (previousById.size() != previous.getStreamsCount() || nextById.size() != next.getStreamsCount()) {
+            return null;
+        }
+
+        final StreamsDelta.Builder delta = StreamsDelta.newBuilder()
+                .setBaseTimestamp(previous.getTimestamp())
+                .setTimestamp(next.getTimestamp())
+                .setStart(next.getStart())
+                .setFromCache(next.getFromCache())
+                .setStale(next.getStale());
+
+        // what the client ends up with if we don't send an order
+        final List<Long> implicitOrder = new ArrayList<>(nextById.size());
+        for (Long id : previousById.keySet()) {
+            if (!nextById.containsKey(id)) {
+                delta.addRemovedIds(id);
+            } else {
+                implicitOrder.add(id);
+            }
+        }
+
+        for (TwitchStream stream : nextById.values()) {
+            final TwitchStream old = previousById.get(stream.getId());
+            if (old == null) {
+                delta.addAdded(stream);
+                implicitOrder.add(stream.getId());
+            } else if (!old.equals(stream)) {
+                delta.addChanged(diff(old, stream));
+            }
+        }
+
+        if (!implicitOrder.equals(new ArrayList<>(nextById.keySet()))) {
+            delta.addAllOrder(nextById.keySet());
+        }
+        return delta.build();
+    }
+
+    private static TwitchStreamChange diff(TwitchStream previous, TwitchStream next) {
+        final TwitchStreamChange.Builder change = TwitchStreamChange.newBuilder()
+                .setId(next.getId());
+        final TwitchStream.Builder fields = TwitchStream.newBuilder();
+        for (FieldDescriptor field : STREAM_FIELDS) {
+            final Object value = next.getField(field);
+            if (!value.equals(previous.getField(field))) {
+                fields.setField(field, value);
+                change.addChangedFields(field.getNumber());
+            }
+        }
+        return change.setFields(fields).build();
+    }
+
+    /**
+     * @throws IllegalArgumentException if delta wasn't diffed against previous
+     */
+    public static StreamsResponse apply(StreamsResponse previous, StreamsDelta delta) {
+        if (delta.getBaseTimestamp() != previous.getTimestamp()) {
+            throw new IllegalArgumentException("delta is against " + delta.getBaseTimestamp()
+                    + ", not " + previous.getTimestamp());
+        }
+
+        final Map<Long, TwitchStream> streams = byId(previous.getStreamsList());
+        for (long id : delta.getRemovedIdsList()) {
+            streams.remove(id);
+        }
+        for (TwitchStreamChange change : delta.getChangedList()) {
+            final TwitchStream old = streams.get(change.getId());
+            if (old == null) {
+                throw new IllegalArgumentException("changed stream " + change.getId() + " isn't in the previous response");
+            }
+            final TwitchStream.Builder stream = old.toBuilder();
+            for (int number : change.getChangedFieldsList()) {
+                final FieldDescriptor field = TwitchStream.getDescriptor().findFieldByNumber(number);
+                stream.setField(field, change.getFields().getField(field));
+            }
+            streams.put(change.getId(), stream.build());
+        }
+        for (TwitchStream stream : delta.getAddedList()) {
+            streams.put(stream.getId(), stream);
+        }
+
+        final StreamsResponse.Builder next = StreamsResponse.newBuilder()
+                .setStart(delta.getStart())
+                .setTimestamp(delta.getTimestamp())
+                .setFromCache(delta.getFromCache())
+                .setStale(delta.getStale());
+        if (delta.getOrderCount() == 0) {
+            next.addAllStreams(streams.values());
+        } else {
+            for (long id : delta.getOrderList()) {
+                next.addStreams(streams.get(id));
+            }
+        }
+        return next.build();
+    }
+
+    private static Map<Long, TwitchStream> byId(List<TwitchStream> streams) {
+        final Map<Long, TwitchStream> byId = new LinkedHashMap<>();
+        for (TwitchStream stream : streams) {
+            byId.put(stream.getId(), stream);
+        }
+        return byId;
+    }
+}
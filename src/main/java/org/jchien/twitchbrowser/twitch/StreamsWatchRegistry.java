@@ -0,0 +1,311 @@
+package org.jchien.twitchbrowser.twitch;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.jchien.twitchbrowser.StreamsRequest;
+import org.jchien.twitchbrowser.StreamsDelta;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.jchien.twitchbrowser.StreamsUpdate;
+import org.jchien.twitchbrowser.cache.CacheResult;
+import org.jchien.twitchbrowser.util.CompletableFutures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Subscribers for watchStreams and watchStreamsDelta, grouped by the cache entry they're watching. Whenever an entry
+ * is written to the cache every subscriber to it is sent the new response, so one refresh serves any number of clients.
+ *
+ * Refreshes done on other instances only show up in redis, so watched entries are also swept every few seconds. That
+ * picks up anything newer from redis and refreshes anything gone stale, same as a client polling getStreams would.
+ *
+ * A subscriber only holds on to the newest response it hasn't been sent yet. If a client isn't keeping up, older
+ * responses are dropped instead of buffered since it only cares about the latest one.
+ *
+ * watchStreamsDelta subscribers get the same responses as deltas against the last one they were sent, see
+ * {@link StreamsDeltas}.
+ *
+ * @author jchien
+ */
+@Component
+public class StreamsWatchRegistry implements PublicMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamsWatchRegistry.class);
+
+    private static final String METRIC_PREFIX = "twibro.watch.";
+
+    private static final long SWEEP_MILLIS = 5000; // time between checks of the watched entries
+
+    private final CachingTwitchApiService service;
+
+    private final ConcurrentMap<String, Topic> topics = new ConcurrentHashMap<>();
+
+    private final AtomicLong sentCount = new AtomicLong();
+
+    private final AtomicLong conflatedCount = new AtomicLong();
+
+    // how much smaller the deltas were than the responses they stood in for, counted once per topic
+    private final AtomicLong deltaBytesSaved = new AtomicLong();
+
+    @Autowired
+    public StreamsWatchRegistry(@Qualifier("cachingTwitchApiService") CachingTwitchApiService service) {
+        this.service = service;
+        service.addUpdateListener(this::publish);
+    }
+
+    /**
+     * Sends the current response for request right away, then again each time it changes until the call is
+     * cancelled. Has to be called from the grpc method itself since it sets the observer's handlers.
+     */
+    public void watch(StreamsRequest request, ServerCallStreamObserver<StreamsResponse> observer) {
+        subscribe(request, observer, (previous, next) -> next);
+    }
+
+    /**
+     * Same as {@link #watch(StreamsRequest, ServerCallStreamObserver)} except only the first response is sent whole,
+     * after that it's deltas against whatever was sent last.
+     */
+    public void watchDelta(StreamsRequest request, ServerCallStreamObserver<StreamsUpdate> observer) {
+        final String cacheKey = service.getCacheKey(request);
+        subscribe(request, observer, (previous, next) -> toUpdate(cacheKey, previous, next));
+    }
+
+    private <T> void subscribe(StreamsRequest request,
+                               ServerCallStreamObserver<T> observer,
+                               BiFunction<StreamsResponse, StreamsResponse, T> toMessage) {
+        if (!service.isCacheableRequest(request)) {
+            observer.onError(Status.INVALID_ARGUMENT
+                    .withDescription("only whole pages of " + CachingTwitchApiService.GAME_STREAM_LIMIT + " streams can be watched")
+                    .asRuntimeException());
+            return;
+        }
+
+        final String cacheKey = service.getCacheKey(request);
+        final Subscriber<T> subscriber = new Subscriber<>(observer, toMessage);
+        observer.setOnReadyHandler(subscriber::drain);
+        observer.setOnCancelHandler(() -> {
+            subscriber.close();
+            unsubscribe(cacheKey, subscriber);
+        });
+
+        topics.compute(cacheKey, (k, topic) -> {
+            if (topic == null) {
+                topic = new Topic(request);
+            }
+            topic.subscribers.add(subscriber);
+            return topic;
+        });
+
+        service.getStreamsAsync(request).whenComplete((response, t) -> {
+            if (t != null) {
+                subscriber.fail(CompletableFutures.unwrap(t));
+                unsubscribe(cacheKey, subscriber);
+            } else {
+                subscriber.offer(response);
+            }
+        });
+    }
+
+    private void unsubscribe(String cacheKey, Subscriber<?> subscriber) {
+        topics.computeIfPresent(cacheKey, (k, topic) -> {
+            topic.subscribers.remove(subscriber);
+            return topic.subscribers.isEmpty() ? null : topic;
+        });
+    }
+
+    private void publish(String cacheKey, StreamsResponse response) {
+        final Topic topic = topics.get(cacheKey);
+        if (topic == null) {
+            return;
+        }
+        for (Subscriber<?> subscriber : topic.subscribers) {
+            subscriber.offer(response);
+        }
+    }
+
+    private StreamsUpdate toUpdate(String cacheKey, StreamsResponse previous, StreamsResponse next) {
+        if (previous == null) {
+            return StreamsUpdate.newBuilder().setSnapshot(next).build();
+        }
+
+        // subscribers to a topic are usually all moving between the same two responses, only diff them once
+        final Topic topic = topics.get(cacheKey);
+        final DeltaUpdate cached = topic != null ? topic.lastDelta : null;
+        if (cached != null && cached.baseTimestamp == previous.getTimestamp() && cached.timestamp == next.getTimestamp()) {
+            return cached.update;
+        }
+
+        final StreamsDelta delta = StreamsDeltas.diff(previous, next);
+        final StreamsUpdate update;
+        if (delta == null || delta.getSerializedSize() >= next.getSerializedSize()) {
+            update = StreamsUpdate.newBuilder().setSnapshot(next).build();
+        } else {
+            update = StreamsUpdate.newBuilder().setDelta(delta).build();
+            deltaBytesSaved.addAndGet(next.getSerializedSize() - delta.getSerializedSize());
+        }
+        if (topic != null) {
+            topic.lastDelta = new DeltaUpdate(previous.getTimestamp(), next.getTimestamp(), update);
+        }
+        return update;
+    }
+
+    @Scheduled(fixedDelay = SWEEP_MILLIS)
+    private void sweep() {
+        final List<Topic> watched = new ArrayList<>(topics.values());
+        if (watched.isEmpty()) {
+            return;
+        }
+
+        final List<StreamsRequest> requests = new ArrayList<>(watched.size());
+        for (Topic topic : watched) {
+            requests.add(topic.request);
+        }
+
+        // never fails, redis problems just look like misses
+        final List<CacheResult> results = service.getCacheResults(requests).join();
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < requests.size(); i++) {
+            final StreamsRequest request = requests.get(i);
+            final CacheResult result = results.get(i);
+            if (result.getStatus() == CacheResult.Status.HIT) {
+                publish(service.getCacheKey(request), result.getResponse());
+                if (now - result.getResponse().getTimestamp() <= CachingTwitchApiService.STALE_MS) {
+                    continue;
+                }
+            }
+
+            // publishes through the update listener once it's written to the cache
+            service.refresh(request).whenComplete((response, t) -> {
+                if (t != null) {
+                    LOG.warn("refresh failed for watched game " + request.getGameName() + " start=" + request.getStart(),
+                            CompletableFutures.unwrap(t));
+                }
+            });
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        int subscribers = 0;
+        for (Topic topic : topics.values()) {
+            subscribers += topic.subscribers.size();
+        }
+        return Arrays.asList(
+                new Metric<>(METRIC_PREFIX + "topics", topics.size()),
+                new Metric<>(METRIC_PREFIX + "subscribers", subscribers),
+                new Metric<>(METRIC_PREFIX + "sent", sentCount.get()),
+                new Metric<>(METRIC_PREFIX + "conflated", conflatedCount.get()),
+                new Metric<>(METRIC_PREFIX + "deltaBytesSaved", deltaBytesSaved.get()));
+    }
+
+    private static class Topic {
+        // what the sweep looks up, any of the subscribers' requests will do since they share a cache key
+        private final StreamsRequest request;
+
+        private final Set<Subscriber<?>> subscribers = ConcurrentHashMap.newKeySet();
+
+        private volatile DeltaUpdate lastDelta;
+
+        Topic(StreamsRequest request) {
+            this.request = request;
+        }
+    }
+
+    private static class DeltaUpdate {
+        private final long baseTimestamp;
+
+        private final long timestamp;
+
+        private final StreamsUpdate update;
+
+        DeltaUpdate(long baseTimestamp, long timestamp, StreamsUpdate update) {
+            this.baseTimestamp = baseTimestamp;
+            this.timestamp = timestamp;
+            this.update = update;
+        }
+    }
+
+    private class Subscriber<T> {
+        private final ServerCallStreamObserver<T> observer;
+
+        // turns the last response sent, null for the first one, and the next response into what's sent
+        private final BiFunction<StreamsResponse, StreamsResponse, T> toMessage;
+
+        // everything below is guarded by this
+
+        // newest response not sent yet
+        private StreamsResponse pending;
+
+        private StreamsResponse lastSent;
+
+        private long lastTimestamp = Long.MIN_VALUE;
+
+        private boolean closed = false;
+
+        Subscriber(ServerCallStreamObserver<T> observer, BiFunction<StreamsResponse, StreamsResponse, T> toMessage) {
+            this.observer = observer;
+            this.toMessage = toMessage;
+        }
+
+        synchronized void offer(StreamsResponse response) {
+            // the same refresh can show up from both the listener and a sweep
+            if (closed || response.getTimestamp() <= lastTimestamp) {
+                return;
+            }
+            lastTimestamp = response.getTimestamp();
+            if (pending != null) {
+                conflatedCount.incrementAndGet();
+            }
+            pending = response;
+            drain();
+        }
+
+        /**
+         * Sends the pending response if the client can take it, otherwise this gets called again once it can.
+         */
+        synchronized void drain() {
+            if (closed || pending == null || !observer.isReady()) {
+                return;
+            }
+            try {
+                observer.onNext(toMessage.apply(lastSent, pending));
+                lastSent = pending;
+                sentCount.incrementAndGet();
+            } catch (RuntimeException e) {
+                // cancelled out from under us, the cancel handler cleans up
+                LOG.debug("unable to send to watcher: " + e.getMessage());
+                closed = true;
+            }
+            pending = null;
+        }
+
+        synchronized void fail(Throwable t) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = null;
+            observer.onError(t);
+        }
+
+        synchronized void close() {
+            closed = true;
+            pending = null;
+            lastSent = null;
+        }
+    }
+}
@@ -6,7 +6,9 @@ import org.jchien.twitchbrowser.StreamsRequest;
 import org.jchien.twitchbrowser.StreamsResponse;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author jchien
@@ -16,5 +18,26 @@ public interface TwitchApiService {
 
     PopularGamesResponse getPopularGames(PopularGamesRequest request) throws IOException;
 
+    /**
+     * Same as {@link #getStreams(StreamsRequest)} without tying up the calling thread, failures complete the future
+     * exceptionally, usually with an IOException.
+     */
+    CompletableFuture<StreamsResponse> getStreamsAsync(StreamsRequest request);
+
+    /**
+     * Looks up many requests at once. The futures are in the same order as the requests and each one completes on its
+     * own, one request failing doesn't fail the rest. Implementations that can do better than a call per request
+     * should override this.
+     */
+    default List<CompletableFuture<StreamsResponse>> getStreamsBatchAsync(List<StreamsRequest> requests) {
+        final List<CompletableFuture<StreamsResponse>> responses = new ArrayList<>(requests.size());
+        for (StreamsRequest request : requests) {
+            responses.add(getStreamsAsync(request));
+        }
+        return responses;
+    }
+
+    CompletableFuture<PopularGamesResponse> getPopularGamesAsync(PopularGamesRequest request);
+
     void shutdown();
 }
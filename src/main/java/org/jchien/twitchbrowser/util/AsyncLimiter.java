@@ -0,0 +1,101 @@
+package org.jchien.twitchbrowser.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Caps how many async calls run at once. Calls past the limit wait in line and are started, in order, as earlier ones
+ * complete. Nothing blocks, the queued calls are started from whichever thread completes a running one.
+ *
+ * Cancelling the future submit returns cancels the call if it's running, or drops it from the line if it's waiting.
+ *
+ * @author jchien
+ */
+public class AsyncLimiter {
+    private final int maxConcurrent;
+
+    // guarded by this
+    private final Queue<Runnable> queued = new ArrayDeque<>();
+
+    // guarded by this
+    private int running = 0;
+
+    // slots freed on this thread while it's already in startNext, for that startNext to fill
+    private final ThreadLocal<int[]> freedSlots = new ThreadLocal<>();
+
+    public AsyncLimiter(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1, got " + maxConcurrent);
+        }
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Runnable start = () -> {
+            if (result.isDone()) {
+                // cancelled while it was waiting its turn
+                startNext();
+                return;
+            }
+
+            CompletableFuture<T> callFuture;
+            try {
+                callFuture = call.get();
+            } catch (RuntimeException e) {
+                callFuture = CompletableFutures.failed(e);
+            }
+            CompletableFutures.propagateCancel(result, callFuture);
+            callFuture.whenComplete((value, t) -> {
+                startNext();
+                if (t != null) {
+                    result.completeExceptionally(CompletableFutures.unwrap(t));
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        synchronized (this) {
+            if (running >= maxConcurrent) {
+                queued.add(start);
+                return result;
+            }
+            running++;
+        }
+        start.run();
+        return result;
+    }
+
+    private void startNext() {
+        // a queued call that completes as soon as it's started would otherwise start the next one from inside this,
+        // and so on down the stack. instead the outermost startNext on the thread starts them one at a time.
+        final int[] freed = freedSlots.get();
+        if (freed != null) {
+            freed[0]++;
+            return;
+        }
+
+        final int[] slots = {1};
+        freedSlots.set(slots);
+        try {
+            while (slots[0] > 0) {
+                slots[0]--;
+                final Runnable next;
+                synchronized (this) {
+                    next = queued.poll();
+                    if (next == null) {
+                        running--;
+                        continue;
+                    }
+                }
+                // the finished call's slot goes straight to the next one
+                next.run();
+            }
+        } finally {
+            freedSlots.remove();
+        }
+    }
+}
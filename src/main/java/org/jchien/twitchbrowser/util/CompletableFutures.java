@@ -0,0 +1,100 @@
+package org.jchien.twitchbrowser.util;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Helpers for CompletableFuture that java 8 doesn't have.
+ *
+ * @author jchien
+ */
+public class CompletableFutures {
+    public static <T> CompletableFuture<T> failed(Throwable t) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    /**
+     * @return a future with the same outcome as the given one, or failed with a TimeoutException if it doesn't
+     * complete in time. The given future is left alone either way.
+     */
+    public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future,
+                                                       long timeout,
+                                                       TimeUnit unit,
+                                                       ScheduledExecutorService scheduler) {
+        if (future.isDone()) {
+            return future;
+        }
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final ScheduledFuture<?> timer = scheduler.schedule(
+                () -> result.completeExceptionally(new TimeoutException("timed out after " + timeout + " " + unit)),
+                timeout,
+                unit);
+
+        future.whenComplete((value, t) -> {
+            timer.cancel(false);
+            if (t != null) {
+                result.completeExceptionally(unwrap(t));
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Cancels source once dependent is cancelled, since stages built with thenApply and friends don't pass
+     * cancellation back to what they depend on.
+     *
+     * @return dependent
+     */
+    public static <T> CompletableFuture<T> propagateCancel(CompletableFuture<T> dependent, Future<?> source) {
+        dependent.whenComplete((value, t) -> {
+            if (dependent.isCancelled()) {
+                source.cancel(false);
+            }
+        });
+        return dependent;
+    }
+
+    /**
+     * Strips the CompletionException/ExecutionException wrappers that dependent stages add.
+     */
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * Blocks on the future for callers that still want the synchronous interface, rethrowing IOExceptions as is.
+     */
+    public static <T> T getOrThrow(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = unwrap(e);
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
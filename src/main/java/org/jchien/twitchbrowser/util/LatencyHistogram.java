@@ -0,0 +1,195 @@
+package org.jchien.twitchbrowser.util;
+
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram in the style of HdrHistogram, recording is an increment so it's cheap enough for every call.
+ * Durations are bucketed by their top SUB_BUCKET_BITS + 1 bits, which keeps each one within about 3% of what was
+ * recorded whether it's microseconds or seconds.
+ *
+ * Percentiles are over the current window plus the one before it, so they reflect the last one to two windows of
+ * traffic instead of everything since startup. The count is since startup.
+ *
+ * @author jchien
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+
+    // longer durations are recorded as this, a bit over a minute
+    private static final long MAX_NANOS = (1L << 36) - 1;
+
+    private static final int BUCKET_COUNT = bucketIndex(MAX_NANOS) + 1;
+
+    private static final long DEFAULT_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final long windowNanos;
+
+    private final LongAdder totalCount = new LongAdder();
+
+    private volatile Window current = new Window(System.nanoTime());
+
+    // null until the first rotation, or when nothing was recorded for a whole window
+    private volatile Window previous;
+
+    public LatencyHistogram() {
+        this(DEFAULT_WINDOW_NANOS);
+    }
+
+    public LatencyHistogram(long windowNanos) {
+        this.windowNanos = windowNanos;
+    }
+
+    public void record(long nanos) {
+        window(System.nanoTime()).record(Math.max(0, Math.min(nanos, MAX_NANOS)));
+        totalCount.increment();
+    }
+
+    /**
+     * @param startNanos from System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    private Window window(long now) {
+        final Window window = current;
+        if (now - window.startNanos < windowNanos) {
+            return window;
+        }
+        synchronized (this) {
+            if (current == window) {
+                // a window that ended more than a window ago is too old to report on
+                previous = now - window.startNanos < 2 * windowNanos ? window : null;
+                current = new Window(now);
+            }
+            return current;
+        }
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public Snapshot snapshot() {
+        final Window recent = window(System.nanoTime());
+        final Window older = previous;
+
+        final long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = recent.counts.get(i) + (older != null ? older.counts.get(i) : 0);
+            count += counts[i];
+        }
+        final long sum = recent.sumNanos.sum() + (older != null ? older.sumNanos.sum() : 0);
+        final long max = Math.max(recent.maxNanos.get(), older != null ? older.maxNanos.get() : 0);
+        return new Snapshot(counts, count, sum, max);
+    }
+
+    /**
+     * @return count since startup, plus mean, p50, p99, p999 and max over the recent windows in microseconds
+     */
+    public Collection<Metric<?>> metrics(String name) {
+        final Snapshot snapshot = snapshot();
+        return Arrays.asList(
+                new Metric<>(name + ".count", getCount()),
+                new Metric<>(name + ".meanMicros", TimeUnit.NANOSECONDS.toMicros(snapshot.getMeanNanos())),
+                new Metric<>(name + ".p50Micros", TimeUnit.NANOSECONDS.toMicros(snapshot.getPercentileNanos(0.5))),
+                new Metric<>(name + ".p99Micros", TimeUnit.NANOSECONDS.toMicros(snapshot.getPercentileNanos(0.99))),
+                new Metric<>(name + ".p999Micros", TimeUnit.NANOSECONDS.toMicros(snapshot.getPercentileNanos(0.999))),
+                new Metric<>(name + ".maxMicros", TimeUnit.NANOSECONDS.toMicros(snapshot.getMaxNanos())));
+    }
+
+    /**
+     * Buckets 0 to 2^(SUB_BUCKET_BITS+1)-1 hold one value each. Past that each power of two gets 2^SUB_BUCKET_BITS
+     * buckets, so a bucket's width is never more than 1/32 of the values in it.
+     */
+    private static int bucketIndex(long nanos) {
+        final int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (nanos >>> shift);
+    }
+
+    /**
+     * @return largest value that lands in the bucket
+     */
+    private static long bucketMaxNanos(int index) {
+        final int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        final long sub = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private static class Window {
+        private final long startNanos;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+        private final LongAdder sumNanos = new LongAdder();
+
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        Window(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        void record(long nanos) {
+            counts.incrementAndGet(bucketIndex(nanos));
+            sumNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sumNanos;
+
+        private final long maxNanos;
+
+        Snapshot(long[] counts, long count, long sumNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanNanos() {
+            return count > 0 ? sumNanos / count : 0;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @param p between 0 and 1
+         * @return 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // the top of the bucket, but never more than was actually recorded
+                    return Math.min(bucketMaxNanos(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
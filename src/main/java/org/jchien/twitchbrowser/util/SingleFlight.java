@@ -0,0 +1,136 @@
+package org.jchien.twitchbrowser.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent calls by key. The first caller for a key starts the call, anyone else asking for the same
+ * key while it's still running gets the same result or exception.
+ *
+ * @author jchien
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, Flight> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong executedCount = new AtomicLong();
+
+    private final AtomicLong collapsedCount = new AtomicLong();
+
+    private final AtomicLong abandonedCount = new AtomicLong();
+
+    /**
+     * Every caller gets its own dependent future, so one of them cancelling doesn't cancel the shared call for
+     * everyone else. Once all of them have cancelled the shared call is cancelled too, and the next caller for the key
+     * starts a new one.
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        while (true) {
+            final Flight flight = new Flight(key);
+            final Flight existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                executedCount.incrementAndGet();
+                flight.start(call);
+                return flight.newCaller();
+            }
+            if (existing.join()) {
+                collapsedCount.incrementAndGet();
+                return existing.newCaller();
+            }
+            // everyone waiting on it gave up and it's being cancelled, it just hasn't been removed yet
+            inFlight.remove(key, existing);
+        }
+    }
+
+    /**
+     * @return number of calls that were actually run
+     */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /**
+     * @return number of calls that piggybacked on a call already in flight instead of running their own
+     */
+    public long getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    /**
+     * @return number of calls cancelled because every caller waiting on them cancelled
+     */
+    public long getAbandonedCount() {
+        return abandonedCount.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private class Flight {
+        private final K key;
+
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+
+        // set before the first caller gets its future, so before anyone can cancel
+        private volatile CompletableFuture<V> callFuture;
+
+        // callers that haven't cancelled, once it's 0 nobody else can join. guarded by this
+        private int waiting = 1;
+
+        Flight(K key) {
+            this.key = key;
+        }
+
+        void start(Supplier<CompletableFuture<V>> call) {
+            CompletableFuture<V> future;
+            try {
+                future = call.get();
+            } catch (RuntimeException e) {
+                future = CompletableFutures.failed(e);
+            }
+            callFuture = future;
+
+            future.whenComplete((value, t) -> {
+                inFlight.remove(key, this);
+                if (t != null) {
+                    result.completeExceptionally(CompletableFutures.unwrap(t));
+                } else {
+                    result.complete(value);
+                }
+            });
+        }
+
+        synchronized boolean join() {
+            if (waiting == 0) {
+                return false;
+            }
+            waiting++;
+            return true;
+        }
+
+        CompletableFuture<V> newCaller() {
+            final CompletableFuture<V> caller = result.thenApply(Function.identity());
+            caller.whenComplete((value, t) -> {
+                if (caller.isCancelled()) {
+                    leave();
+                }
+            });
+            return caller;
+        }
+
+        private void leave() {
+            synchronized (this) {
+                if (--waiting > 0 || result.isDone()) {
+                    return;
+                }
+            }
+            abandonedCount.incrementAndGet();
+            inFlight.remove(key, this);
+            callFuture.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.jchien.twitchbrowser.twitch;
+
+import org.jchien.twitchbrowser.StreamsDelta;
+import org.jchien.twitchbrowser.StreamsResponse;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author jchien
+ */
+public class StreamsDeltasTest {
+    @Test
+    public void testUnchanged() {
+        final StreamsResponse prev = response(1000, stream(1, 100), stream(2, 50));
+        final StreamsResponse next = response(2000, stream(1, 100), stream(2, 50));
+
+        final StreamsDelta delta = assertRoundTrip(prev, next);
+        assertEquals(0, delta.getAddedCount());
+        assertEquals(0, delta.getRemovedIdsCount());
+        assertEquals(0, delta.getChangedCount());
+        assertEquals(0, delta.getOrderCount());
+    }
+
+    @Test
+    public void testAdded() {
+        final StreamsResponse prev = response(1000, stream(1, 100), stream(2, 50));
+        final StreamsResponse next = response(2000, stream(1, 100), stream(2, 50), stream(3, 10));
+
+        final StreamsDelta delta = assertRoundTrip(prev, next);
+        assertEquals(1, delta.getAddedCount());
+        assertEquals(0, delta.getOrderCount());
+    }
+
+    @Test
+    public void testRemoved() {
+        final StreamsResponse prev = response(1000, stream(1, 100), stream(2, 50), stream(3, 10));
+        final StreamsResponse next = response(2000, stream(1, 100), stream(3, 10));
+
+        final StreamsDelta delta = assertRoundTrip(prev, next);
+        assertEquals(1, delta.getRemovedIdsCount());
+        assertEquals(0, delta.getOrderCount());
+    }
+
+    @Test
+    public void testChanged() {
+        final StreamsResponse prev = response(1000, stream(1, 100), stream(2, 50));
+        final StreamsResponse next = response(2000, stream(1, 120), stream(2, 50));
+
+        final StreamsDelta delta = assertRoundTrip(prev, next);
+        assertEquals(1, delta.getChangedCount());
+        assertEquals(0, delta.getOrderCount());
+    }
+
+    @Test
+    public void testChangedToDefault() {
+        final StreamsResponse prev = response(1000, stream(1, 100), stream(2, 50));
+        final StreamsResponse next = response(2000,
+                stream(1, 100).toBuilder().setStatus("").build(),
+                stream(2, 0));
+
+        final StreamsDelta delta = assertRoundTrip(prev, next);
+        assertEquals(2, delta.getChangedCount());
+    }
+
+    @Test
+    public void testReorderedImplicitly() {
+        // removing from the middle and adding to the end keeps the implicit order
+        final StreamsResponse prev = response(1000, stream(1, 100), stream(2, 50), stream(3, 10));
+        final StreamsResponse next = response(2000, stream(1, 100), stream(3, 10), stream(4, 5));
+
+        final StreamsDelta delta = assertRoundTrip(prev, next);
+        assertEquals(0, delta.getOrderCount());
+    }
+
+    @Test
+    public void testReorderedExplicitly() {
+        final StreamsResponse prev = response(1000, stream(1, 100), stream(2, 50), stream(3, 10));
+        final StreamsResponse next = response(2000, stream(2, 150), stream(1, 100), stream(3, 10));
+
+        final StreamsDelta delta = assertRoundTrip(prev, next);
+        assertEquals(3, delta.getOrderCount());
+    }
+
+    @Test
+    public void testAddedBeforeExisting() {
+        final StreamsResponse prev = response(1000, stream(1, 100), stream(2, 50));
+        final StreamsResponse next = response(2000, stream(3, 500), stream(1, 100));
+
+        final StreamsDelta delta = assertRoundTrip(prev, next);
+        assertEquals(1, delta.getAddedCount());
+        assertEquals(1, delta.getRemovedIdsCount());
+        assertEquals(2, delta.getOrderCount());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertRoundTrip(response(1000), response(2000, stream(1, 100)));
+        assertRoundTrip(response(1000, stream(1, 100)), response(2000));
+    }
+
+    @Test
+    public void testDuplicateIds() {
+        final StreamsResponse unique = response(1000, stream(1, 100), stream(2, 50));
+        final StreamsResponse duplicated = response(2000, stream(1, 100), stream(2, 50), stream(1, 100));
+
+        assertNull(StreamsDeltas.diff(unique, duplicated));
+        assertNull(StreamsDeltas.diff(duplicated, unique));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyToWrongBase() {
+        final StreamsResponse prev = response(1000, stream(1, 100));
+        final StreamsDelta delta = StreamsDeltas.diff(prev, response(2000, stream(1, 120)));
+        StreamsDeltas.apply(response(1500, stream(1, 110)), delta);
+    }
+
+    private static StreamsDelta assertRoundTrip(StreamsResponse prev, StreamsResponse next) {
+        final StreamsDelta delta = StreamsDeltas.diff(prev, next);
+        assertNotNull(delta);
+        assertEquals(next, StreamsDeltas.apply(prev, delta));
+        return delta;
+    }
+
+    private static StreamsResponse response(long timestamp, TwitchStream... streams) {
+        final StreamsResponse.Builder response = StreamsResponse.newBuilder()
+                .setTimestamp(timestamp)
+                .setFromCache(true);
+        for (TwitchStream stream : streams) {
+            response.addStreams(stream);
+        }
+        return response.build();
+    }
+
+    private static TwitchStream stream(long id, int numViewers) {
+        return TwitchStream.newBuilder()
+                .setId(id)
+                .setChannelId(id + 1000)
+                .setDisplayName("Channel" + id)
+                .setChannelName("channel" + id)
+                .setChannelUrl("https://www.twitch.tv/channel" + id)
+                .setNumViewers(numViewers)
+                .setStatus("stream " + id)
+                .setGameName("Dota 2")
+                .setPreviewUrl("https://static-cdn.jtvnw.net/previews-ttv/live_user_channel" + id + "-320x180.jpg")
+                .build();
+    }
+}
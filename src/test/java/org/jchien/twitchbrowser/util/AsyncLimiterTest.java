@@ -0,0 +1,137 @@
+package org.jchien.twitchbrowser.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author jchien
+ */
+public class AsyncLimiterTest {
+    @Test
+    public void testQueuesPastLimit() {
+        final AsyncLimiter limiter = new AsyncLimiter(2);
+        final CompletableFuture<Integer> first = new CompletableFuture<>();
+        final CompletableFuture<Integer> second = new CompletableFuture<>();
+        final AtomicBoolean thirdStarted = new AtomicBoolean();
+
+        final CompletableFuture<Integer> firstResult = limiter.submit(() -> first);
+        limiter.submit(() -> second);
+        final CompletableFuture<Integer> thirdResult = limiter.submit(() -> {
+            thirdStarted.set(true);
+            return CompletableFuture.completedFuture(3);
+        });
+        assertFalse(thirdStarted.get());
+
+        first.complete(1);
+        assertEquals(1, (int) firstResult.join());
+        assertTrue(thirdStarted.get());
+        assertEquals(3, (int) thirdResult.join());
+    }
+
+    @Test
+    public void testSynchronousCompletionDoesNotRecurse() {
+        final AsyncLimiter limiter = new AsyncLimiter(1);
+        final CompletableFuture<Integer> gate = new CompletableFuture<>();
+        limiter.submit(() -> gate);
+
+        // each of these completes as soon as it's started, which used to start the next one a few frames deeper
+        final int count = 10000;
+        final List<Integer> started = new ArrayList<>(count);
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final List<CompletableFuture<Integer>> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int n = i;
+            results.add(limiter.submit(() -> {
+                started.add(n);
+                maxDepth.accumulateAndGet(new Throwable().getStackTrace().length, Math::max);
+                return CompletableFuture.completedFuture(n);
+            }));
+        }
+
+        final int gateDepth = new Throwable().getStackTrace().length;
+        gate.complete(-1);
+
+        // everything ran on this thread before complete returned, so nothing should be left waiting
+        assertTrue("stack grew to " + maxDepth.get() + " frames", maxDepth.get() < gateDepth + 100);
+        assertEquals(count, started.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(results.get(i).isDone());
+            assertEquals(i, (int) results.get(i).join());
+            assertEquals(i, (int) started.get(i));
+        }
+        assertSlotsFree(limiter, 1);
+    }
+
+    @Test
+    public void testCancelledWhileQueued() {
+        final AsyncLimiter limiter = new AsyncLimiter(1);
+        final CompletableFuture<Integer> gate = new CompletableFuture<>();
+        limiter.submit(() -> gate);
+
+        final AtomicBoolean cancelledStarted = new AtomicBoolean();
+        final CompletableFuture<Integer> cancelled = limiter.submit(() -> {
+            cancelledStarted.set(true);
+            return CompletableFuture.completedFuture(1);
+        });
+        final CompletableFuture<Integer> next = limiter.submit(() -> CompletableFuture.completedFuture(2));
+        cancelled.cancel(false);
+
+        gate.complete(0);
+        assertFalse(cancelledStarted.get());
+        assertEquals(2, (int) next.join());
+        assertSlotsFree(limiter, 1);
+    }
+
+    @Test
+    public void testCancelRunning() {
+        final AsyncLimiter limiter = new AsyncLimiter(1);
+        final CompletableFuture<Integer> call = new CompletableFuture<>();
+        final CompletableFuture<Integer> result = limiter.submit(() -> call);
+        final CompletableFuture<Integer> next = limiter.submit(() -> CompletableFuture.completedFuture(2));
+
+        result.cancel(false);
+        assertTrue(call.isCancelled());
+        assertEquals(2, (int) next.join());
+        assertSlotsFree(limiter, 1);
+    }
+
+    @Test
+    public void testCallThrows() throws InterruptedException {
+        final AsyncLimiter limiter = new AsyncLimiter(1);
+        final CompletableFuture<Integer> result = limiter.submit(() -> {
+            throw new IllegalStateException("boom");
+        });
+        try {
+            result.get();
+            fail("expected the call's exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertSlotsFree(limiter, 1);
+    }
+
+    /**
+     * Checks every slot has been given back, by starting that many calls that never finish.
+     */
+    private static void assertSlotsFree(AsyncLimiter limiter, int maxConcurrent) {
+        final AtomicInteger started = new AtomicInteger();
+        for (int i = 0; i < maxConcurrent; i++) {
+            limiter.submit(() -> {
+                started.incrementAndGet();
+                return new CompletableFuture<Integer>();
+            });
+        }
+        assertEquals(maxConcurrent, started.get());
+    }
+}
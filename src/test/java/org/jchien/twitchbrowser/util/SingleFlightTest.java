@@ -0,0 +1,127 @@
+package org.jchien.twitchbrowser.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author jchien
+ */
+public class SingleFlightTest {
+    @Test
+    public void testCollapsesConcurrentCalls() {
+        final SingleFlight<String, Integer> flights = new SingleFlight<>();
+        final CompletableFuture<Integer> call = new CompletableFuture<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CompletableFuture<Integer> first = flights.execute("a", () -> {
+            calls.incrementAndGet();
+            return call;
+        });
+        final CompletableFuture<Integer> second = flights.execute("a", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(2);
+        });
+        assertEquals(1, flights.getInFlightCount());
+
+        call.complete(1);
+        assertEquals(1, (int) first.join());
+        assertEquals(1, (int) second.join());
+        assertEquals(1, calls.get());
+        assertEquals(1, flights.getExecutedCount());
+        assertEquals(1, flights.getCollapsedCount());
+        assertEquals(0, flights.getInFlightCount());
+    }
+
+    @Test
+    public void testDifferentKeys() {
+        final SingleFlight<String, Integer> flights = new SingleFlight<>();
+        final CompletableFuture<Integer> a = flights.execute("a", () -> CompletableFuture.completedFuture(1));
+        final CompletableFuture<Integer> b = flights.execute("b", () -> CompletableFuture.completedFuture(2));
+        assertEquals(1, (int) a.join());
+        assertEquals(2, (int) b.join());
+        assertEquals(2, flights.getExecutedCount());
+    }
+
+    @Test
+    public void testNewCallAfterCompletion() {
+        final SingleFlight<String, Integer> flights = new SingleFlight<>();
+        assertEquals(1, (int) flights.execute("a", () -> CompletableFuture.completedFuture(1)).join());
+        assertEquals(2, (int) flights.execute("a", () -> CompletableFuture.completedFuture(2)).join());
+        assertEquals(2, flights.getExecutedCount());
+    }
+
+    @Test
+    public void testFailureShared() throws InterruptedException {
+        final SingleFlight<String, Integer> flights = new SingleFlight<>();
+        final CompletableFuture<Integer> call = new CompletableFuture<>();
+        final CompletableFuture<Integer> first = flights.execute("a", () -> call);
+        final CompletableFuture<Integer> second = flights.execute("a", () -> call);
+
+        call.completeExceptionally(new IOException("boom"));
+        assertFailedWithIOException(first);
+        assertFailedWithIOException(second);
+    }
+
+    @Test
+    public void testCancelOneOfSeveralWaiters() {
+        final SingleFlight<String, Integer> flights = new SingleFlight<>();
+        final CompletableFuture<Integer> call = new CompletableFuture<>();
+        final CompletableFuture<Integer> first = flights.execute("a", () -> call);
+        final CompletableFuture<Integer> second = flights.execute("a", () -> call);
+
+        first.cancel(false);
+        assertFalse(call.isCancelled());
+        assertEquals(0, flights.getAbandonedCount());
+
+        call.complete(1);
+        assertEquals(1, (int) second.join());
+    }
+
+    @Test
+    public void testCancelLastWaiter() {
+        final SingleFlight<String, Integer> flights = new SingleFlight<>();
+        final CompletableFuture<Integer> call = new CompletableFuture<>();
+        final CompletableFuture<Integer> first = flights.execute("a", () -> call);
+        final CompletableFuture<Integer> second = flights.execute("a", () -> call);
+
+        first.cancel(false);
+        second.cancel(false);
+        assertTrue(call.isCancelled());
+        assertEquals(1, flights.getAbandonedCount());
+        assertEquals(0, flights.getInFlightCount());
+
+        // nobody can join the abandoned call, the next caller starts its own
+        final CompletableFuture<Integer> next = flights.execute("a", () -> CompletableFuture.completedFuture(2));
+        assertEquals(2, (int) next.join());
+        assertEquals(2, flights.getExecutedCount());
+    }
+
+    @Test
+    public void testCancelAfterCompletion() {
+        final SingleFlight<String, Integer> flights = new SingleFlight<>();
+        final CompletableFuture<Integer> call = new CompletableFuture<>();
+        final CompletableFuture<Integer> first = flights.execute("a", () -> call);
+
+        call.complete(1);
+        assertFalse(first.cancel(false));
+        assertEquals(0, flights.getAbandonedCount());
+    }
+
+    private static void assertFailedWithIOException(CompletableFuture<Integer> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("expected the call's exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}